@@ -22,6 +22,7 @@ import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
 import info.ponciano.lab.knowdip.aee.memory.Memory;
+import info.ponciano.lab.knowdip.aee.memory.PatchView;
 import info.ponciano.lab.knowdip.reasoner.KReasoner;
 import info.ponciano.lab.knowdip.reasoner.KReasonerOwlFile;
 import info.ponciano.lab.knowdip.reasoner.KReasonerTS;
@@ -49,8 +50,10 @@ import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
 
 /**
  *
@@ -68,10 +71,10 @@ public class Knowdip {
             QuerySolution next = resultSet.next();
             vars.forEach(v -> {
                 if (rdfnode.containsKey(v)) {
-                    rdfnode.get(v).add(next.get(v));
+                    rdfnode.get(v).add(canonical(next.get(v)));
                 } else {
                     ArrayList<RDFNode> arrayList = new ArrayList<>();
-                    arrayList.add(next.get(v));
+                    arrayList.add(canonical(next.get(v)));
                     rdfnode.put(v, arrayList);
                 }
             });
@@ -79,6 +82,11 @@ public class Knowdip {
         return rdfnode;
     }
     private final KReasoner reasoner;
+    /**
+     * Minimum time in milliseconds between two memory checkpoints while
+     * interpreting a file, 0 to disable them.
+     */
+    private long checkpointPeriod = 0;
 
     /**
      * Get the knowdip memory where pointclouds ands images are dynamically
@@ -187,16 +195,100 @@ public class Knowdip {
         String[] buffS = buff.toString().split("CONSTRUCT|SELECT");
         //if the query is not empty, interprets it 
         boolean allOK = true;
+        long lastCheckpoint = System.currentTimeMillis();
         for (String query : buffS) {
             if (!query.isEmpty()) {
                 if (!this.interprets("CONSTRUCT" + query)) {
                     allOK = false;
                 }
+                if (this.checkpointPeriod > 0 && System.currentTimeMillis() - lastCheckpoint >= this.checkpointPeriod) {
+                    this.checkpoint();
+                    lastCheckpoint = System.currentTimeMillis();
+                }
             }
         }
         return allOK;
     }
 
+    /**
+     * Sets the minimum time between two memory checkpoints performed while
+     * interpreting a file.
+     *
+     * @param millis period in milliseconds, 0 to disable the checkpoints.
+     */
+    public void setCheckpointPeriod(long millis) {
+        this.checkpointPeriod = millis;
+    }
+
+    /**
+     * Sets if the memory is collected after each {@code REMOVE}.
+     *
+     * @param autoCollect true to free the orphaned memory resources after
+     * each remove
+     */
+    public void setAutoCollect(boolean autoCollect) {
+        this.reasoner.setAutoCollect(autoCollect);
+    }
+
+    /**
+     * Sets if the memory resources used by the algorithms of a rule are loaded
+     * in background before the algorithms are executed.
+     *
+     * @param prefetch true to prefetch the resources, disabled by default
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.reasoner.setPrefetch(prefetch);
+    }
+
+    /**
+     * Sets the number of algorithm calls whose results are reused when the
+     * same call is executed again, 0 disables the cache. Only the calls of
+     * the algorithms implementing {@code CacheableAlgorithm} are cached.
+     *
+     * @param capacity maximum number of calls cached
+     */
+    public void setResultCapacity(int capacity) {
+        this.reasoner.setResultCapacity(capacity);
+    }
+
+    /**
+     * Sets if the results of the algorithm calls are persisted alongside the
+     * memory directory. Executing again the rules on an unchanged dataset then
+     * reuses the results of the previous sessions.
+     *
+     * @param persistent true to persist the results
+     * @throws IOException if the results of a previous session cannot be read
+     */
+    public void setPersistentResults(boolean persistent) throws IOException {
+        this.reasoner.setPersistentResults(persistent);
+    }
+
+    /**
+     * Frees the memory resources whose individuals have been removed from the
+     * working model.
+     *
+     * @return the number of resources freed
+     */
+    public int collectMemory() {
+        return this.reasoner.collectMemory();
+    }
+
+    /**
+     * Persists the memory resources modified since the last checkpoint, and
+     * the results of the algorithm calls if they are persisted.
+     *
+     * @return the number of resources written
+     */
+    public int checkpoint() {
+        int written = this.getMemory().checkpoint();
+        try {
+            this.reasoner.saveResults();
+        } catch (IOException ex) {
+            Logger.getLogger(Knowdip.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return written;
+    }
+
     /**
      * Executes construct with the execution of an algorithms.
      *
@@ -257,10 +349,26 @@ public class Knowdip {
     }
 
     public static Node createNode(String name) {
-        if (!name.contains("#")) {
-            name = KD.NS + name;
+        //the URIs are shared with the memory
+        return NodeFactory.createURI(UriTable.qualify(name));
+    }
+
+    /**
+     * Gets a node of a query result whose URI is the canonical instance of the
+     * URI table, so the results kept by the caller share their URIs with the
+     * memory.
+     *
+     * @param node node of a query solution
+     * @return the node with the canonical URI, or the given node if it is not
+     * a URI resource
+     */
+    private static RDFNode canonical(RDFNode node) {
+        if (node == null || !node.isURIResource()) {
+            return node;
         }
-        return NodeFactory.createURI(name);
+        String uri = UriTable.intern(node.asResource().getURI());
+        Model model = node.getModel();
+        return model == null ? ResourceFactory.createResource(uri) : model.createResource(uri);
     }
 
     /**
@@ -338,7 +446,7 @@ public class Knowdip {
             QuerySolution next = resultSet.next();
             KSolution ks = new KSolution();
             vars.forEach(v -> {
-                ks.put(v, next.get(v));
+                ks.put(v, canonical(next.get(v)));
             });
             lks.add(ks);
 
@@ -395,6 +503,26 @@ public class Knowdip {
         return patches;
     }
 
+    /**
+     * Get the views of the patches stored in the knowledge base. A view only
+     * holds the indices of the points of the patch in its parent cloud.
+     *
+     * @return {@code Map} with patches URI as key and views as value
+     */
+    public Map<String, PatchView> getPatchViews() {
+        Map<String, PatchView> patches = new HashMap<>();
+        Iterator<KSolution> select = Knowdip.get().select("SELECT ?p WHERE{ ?p rdf:type knowdip:Patch}");
+        Memory memory = Knowdip.get().getMemory();
+        while (select.hasNext()) {
+            String uri = select.next().get("?p").asResource().getURI();
+            PatchView view = memory.getView(uri);
+            if (view != null) {
+                patches.put(uri, view);
+            }
+        }
+        return patches;
+    }
+
     /**
      * Displays in an openGL window the point clouds or patches selected by the
      * SPARQL query.
@@ -439,12 +567,15 @@ public class Knowdip {
             String uri = next.get(segmentVar).asResource().getURI();
             //select patches that composed the segment
             Iterator<KSolution> patches = this.select("SELECT ?p WHERE{<" + uri + "> knowdip:isComposedOf ?p}");
-            Pointcloud cloud = new Pointcloud();
+            List<PatchView> views = new ArrayList<>();
             while (patches.hasNext()) {
-                APointCloud access = (APointCloud) memory.access(patches.next().get("?p").asResource().getURI());
-                cloud.add(access);
+                PatchView view = memory.getView(patches.next().get("?p").asResource().getURI());
+                if (view != null) {
+                    views.add(view);
+                }
             }
-            pcm.add(cloud.getPoints());
+            //the points are gathered once from the parent clouds
+            pcm.add(memory.materialize(views).getPoints());
         }
         ShowPointcloud spc = new ShowPointcloud(null, false, pcm, segmentVar, false, randomcolor);
         spc.setVisible(true);
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip;
+
+/**
+ * Canonical instances of the URIs.
+ * <p>
+ * Every URI used by the memory, by the nodes created by Knowdip and by the
+ * query results is stored once: structures indexing many resources share the
+ * same instances, whose hash is computed once, and compare them without
+ * reading their characters. The instances are kept in the string pool of
+ * the virtual machine, which is shared by all the threads and from which the
+ * URIs no longer referenced are collected, so the table never grows beyond
+ * the URIs in use.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class UriTable {
+
+    private UriTable() {
+    }
+
+    /**
+     * Gets the canonical instance of a URI.
+     *
+     * @param uri URI
+     * @return the instance of the URI shared by the whole application, or
+     * {@code null} if the URI is {@code null}
+     */
+    public static String intern(String uri) {
+        return uri == null ? null : uri.intern();
+    }
+
+    /**
+     * Gets the canonical URI of a name, prefixed by the Knowdip namespace if
+     * it has no namespace.
+     *
+     * @param name local name or URI
+     * @return the canonical instance of the URI
+     */
+    public static String qualify(String name) {
+        return intern(qualified(name));
+    }
+
+    /**
+     * Gets the URI of a name, prefixed by the Knowdip namespace if it has no
+     * namespace, without interning it.
+     *
+     * @param name local name or URI
+     * @return the URI
+     */
+    public static String qualified(String name) {
+        return name.indexOf('#') < 0 ? KD.NS + name : name;
+    }
+
+}
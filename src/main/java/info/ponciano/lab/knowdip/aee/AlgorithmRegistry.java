@@ -19,9 +19,12 @@ package info.ponciano.lab.knowdip.aee;
 
 import info.ponciano.lab.knowdip.KD;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.BindingPlan;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
@@ -39,6 +42,10 @@ public class AlgorithmRegistry {
 	private static AlgorithmRegistry instance = null;
 	
 	private final PropertyFunctionRegistry reg = PropertyFunctionRegistry.get(ARQ.getContext());
+	/**
+	 * Classes of the registered algorithms by URI.
+	 */
+	private final Map<String, Class<? extends Algorithm>> algorithms = new ConcurrentHashMap<>();
 	private OntModel model = null;
 	
 	public AlgorithmRegistry() { }
@@ -97,9 +104,16 @@ public class AlgorithmRegistry {
 	 * @see info.ponciano.lab.knowdip.execution_engine.aee.Algorithm
 	 */
 	public OntClass register(Class<? extends Algorithm> clazz) throws KnowdipException {
+		//the binding of the arguments is compiled once for all the executions
+		try {
+			BindingPlan.of(clazz);
+		} catch (IllegalArgumentException ex) {
+			throw new KnowdipException(ex.getMessage());
+		}
 		OntClass algorithm = model.createClass(KD.NS + clazz.getSimpleName());
 		
 		reg.put(algorithm.getURI(), clazz);
+		algorithms.put(algorithm.getURI(), clazz);
 
 		return algorithm;
 	}
@@ -123,10 +137,21 @@ public class AlgorithmRegistry {
 			model.removeAll(algorithm, null, null);
 			model.removeAll(null, null, algorithm);
 			reg.remove(uri);
+			algorithms.remove(uri);
 		}
 	}
 	
 
+	/**
+	 * Gets the class of a registered algorithm.
+	 * 
+	 * @param uri is the URI of the algorithm
+	 * @return the class of the algorithm or {@code null} if it is not registered
+	 */
+	public Class<? extends Algorithm> getAlgorithm(String uri) {
+		return algorithms.get(uri);
+	}
+	
 	/**
 	 * Gets the URI of the Algorithm sub-class.
 	 * 
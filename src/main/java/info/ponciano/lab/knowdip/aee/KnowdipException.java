@@ -25,5 +25,9 @@ public class KnowdipException extends Exception {
     public KnowdipException(String string) {
         super(string);
     }
+
+    public KnowdipException(String string, Throwable cause) {
+        super(string, cause);
+    }
     
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the argument binder of each algorithm declaring {@code @Param}
+ * fields.
+ * <p>
+ * The binder of an algorithm {@code A} is the class {@code A_Binder} of the
+ * same package. It assigns each argument with a direct store in the field,
+ * converting the value to the type of the field. The types of the parameters
+ * are checked at compile time: a parameter must not be private nor static, it
+ * can be final only if it is a list, a primitive parameter must be a
+ * double, a float, an int, a long or a boolean, and the elements of a list
+ * parameter must have a concrete type: a list of wildcards or of type
+ * variables cannot be filled.</p>
+ * <p>
+ * The processor runs when a compiled source declares {@code @Param} fields,
+ * it then generates the binders of every algorithm compiled, including those
+ * inheriting all their parameters. An algorithm without binder is bound by
+ * reflection.</p>
+ * <p>
+ * The processor is compiled before the rest of the sources and declared to
+ * the compiler in the pom. It only refers to the classes of Knowdip by their
+ * names.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class ParamProcessor extends AbstractProcessor {
+
+    static final String PACKAGE = "info.ponciano.lab.knowdip.aee.algorithm.sparql";
+    static final String ALGORITHM = PACKAGE + ".Algorithm";
+    static final String PARAM = PACKAGE + ".Param";
+    static final String BINDER = PACKAGE + ".ArgumentBinder";
+    static final String PLAN = PACKAGE + ".BindingPlan";
+    static final String SUFFIX = "_Binder";
+
+    /**
+     * Algorithms whose binder has already been generated.
+     */
+    private final Set<String> generated = new HashSet<>();
+    /**
+     * Number of errors reported, a binder is not generated for an algorithm
+     * having invalid parameters.
+     */
+    private int errors;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        //not declared by an annotation, which no processor would claim when
+        //this class is compiled with the processors enabled
+        return Collections.singleton(PARAM);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement algorithm = processingEnv.getElementUtils().getTypeElement(ALGORITHM);
+        TypeElement param = processingEnv.getElementUtils().getTypeElement(PARAM);
+        if (algorithm == null || param == null) {
+            return false;
+        }
+        for (Element e : roundEnv.getElementsAnnotatedWith(param)) {
+            TypeElement owner = (TypeElement) e.getEnclosingElement();
+            if (!processingEnv.getTypeUtils().isSubtype(owner.asType(), algorithm.asType())) {
+                error(e, "@Param can only annotate the fields of an Algorithm");
+            }
+        }
+        List<TypeElement> types = new ArrayList<>();
+        for (Element e : roundEnv.getRootElements()) {
+            collect(e, types);
+        }
+        for (TypeElement type : types) {
+            if (type.getModifiers().contains(Modifier.ABSTRACT)
+                    || !processingEnv.getTypeUtils().isSubtype(type.asType(), algorithm.asType())
+                    || !this.generated.add(type.getQualifiedName().toString())) {
+                continue;
+            }
+            int before = this.errors;
+            Map<String, VariableElement> parameters = parameters(type, algorithm, param);
+            if (!parameters.isEmpty() && this.errors == before) {
+                generate(type, parameters);
+            }
+        }
+        //the @Param annotations are claimed, no other processor handles them
+        return true;
+    }
+
+    /**
+     * Collects a class and its nested classes.
+     */
+    private static void collect(Element e, List<TypeElement> types) {
+        if (e.getKind() != ElementKind.CLASS) {
+            return;
+        }
+        types.add((TypeElement) e);
+        for (TypeElement nested : ElementFilter.typesIn(e.getEnclosedElements())) {
+            collect(nested, types);
+        }
+    }
+
+    /**
+     * Gets the parameters of an algorithm, declared by the algorithm or by its
+     * super classes, and checks them.
+     *
+     * @param type class of the algorithm
+     * @param algorithm the class Algorithm
+     * @param param the annotation Param
+     * @return the fields by name of parameter, empty if the algorithm has no
+     * annotated field
+     */
+    private Map<String, VariableElement> parameters(TypeElement type, TypeElement algorithm, TypeElement param) {
+        Map<String, VariableElement> parameters = new LinkedHashMap<>();
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        for (TypeElement c = type; c != null && !c.equals(algorithm); c = superclass(c)) {
+            for (VariableElement f : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                AnnotationMirror m = mirror(f, param);
+                if (m == null) {
+                    continue;
+                }
+                String name = name(f, m);
+                if (parameters.containsKey(name)) {
+                    if (c.equals(type)) {
+                        error(f, "Duplicate parameter " + name);
+                    }
+                    continue;
+                }
+                Set<Modifier> modifiers = f.getModifiers();
+                if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+                    error(f, "A parameter must not be private nor static");
+                } else if (!c.equals(type) && !modifiers.contains(Modifier.PUBLIC)
+                        && !processingEnv.getElementUtils().getPackageOf(c).equals(pkg)) {
+                    error(f, "The parameter " + name + " is not accessible from " + type.getQualifiedName());
+                } else if (modifiers.contains(Modifier.FINAL) && !isList(f.asType())) {
+                    error(f, "Only a list parameter can be final");
+                } else if (isList(f.asType()) && element(f.asType()) != null
+                        && element(f.asType()).getKind() != TypeKind.DECLARED
+                        && element(f.asType()).getKind() != TypeKind.ARRAY) {
+                    error(f, "The elements of the list parameter " + name + " must have a concrete type: " + f.asType());
+                } else if (f.asType().getKind().isPrimitive() && converter(f.asType()) == null) {
+                    error(f, "Unsupported type of parameter: " + f.asType());
+                }
+                parameters.put(name, f);
+            }
+        }
+        return parameters;
+    }
+
+    private TypeElement superclass(TypeElement c) {
+        TypeMirror s = c.getSuperclass();
+        return s.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) s).asElement() : null;
+    }
+
+    private static AnnotationMirror mirror(Element e, TypeElement annotation) {
+        for (AnnotationMirror m : e.getAnnotationMirrors()) {
+            if (m.getAnnotationType().asElement().equals(annotation)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the name of a parameter, given by the annotation or by the field.
+     */
+    private static String name(VariableElement f, AnnotationMirror m) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : m.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals("value")) {
+                String name = e.getValue().getValue().toString();
+                if (!name.isEmpty()) {
+                    return name;
+                }
+            }
+        }
+        return f.getSimpleName().toString();
+    }
+
+    private boolean isList(TypeMirror t) {
+        TypeElement list = processingEnv.getElementUtils().getTypeElement(List.class.getName());
+        return t.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(t), processingEnv.getTypeUtils().erasure(list.asType()));
+    }
+
+    /**
+     * Gets the type of the elements of a list.
+     *
+     * @param t type of a list
+     * @return the type argument of {@link List}, {@code null} for a raw list
+     */
+    private TypeMirror element(TypeMirror t) {
+        TypeElement list = processingEnv.getElementUtils().getTypeElement(List.class.getName());
+        TypeMirror listErasure = processingEnv.getTypeUtils().erasure(list.asType());
+        List<TypeMirror> pending = new ArrayList<>();
+        pending.add(t);
+        while (!pending.isEmpty()) {
+            TypeMirror c = pending.remove(0);
+            if (processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(c), listErasure)) {
+                List<? extends TypeMirror> args = ((DeclaredType) c).getTypeArguments();
+                return args.isEmpty() ? null : args.get(0);
+            }
+            pending.addAll(processingEnv.getTypeUtils().directSupertypes(c));
+        }
+        return null;
+    }
+
+    /**
+     * Gets the conversion method of the binding plan for a type.
+     *
+     * @param t type of a parameter
+     * @return the name of the method or {@code null} if the values are cast
+     */
+    private String converter(TypeMirror t) {
+        switch (t.getKind()) {
+            case DOUBLE:
+                return "asDouble";
+            case FLOAT:
+                return "asFloat";
+            case INT:
+                return "asInteger";
+            case LONG:
+                return "asLong";
+            case BOOLEAN:
+                return "asBoolean";
+            case DECLARED:
+                switch (processingEnv.getTypeUtils().erasure(t).toString()) {
+                    case "java.lang.Double":
+                        return "asDouble";
+                    case "java.lang.Float":
+                        return "asFloat";
+                    case "java.lang.Integer":
+                        return "asInteger";
+                    case "java.lang.Long":
+                        return "asLong";
+                    case "java.lang.Boolean":
+                        return "asBoolean";
+                    case "java.lang.String":
+                        return "asString";
+                    default:
+                        return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Writes the binder of an algorithm.
+     *
+     * @param type class of the algorithm
+     * @param parameters fields by name of parameter
+     */
+    private void generate(TypeElement type, Map<String, VariableElement> parameters) {
+        String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binary = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simple = binary.substring(pkg.isEmpty() ? 0 : pkg.length() + 1).replace('$', '_') + SUFFIX;
+        String algorithm = type.getQualifiedName().toString();
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    pkg.isEmpty() ? simple : pkg + "." + simple, type);
+            try (PrintWriter w = new PrintWriter(file.openWriter())) {
+                if (!pkg.isEmpty()) {
+                    w.println("package " + pkg + ";");
+                    w.println();
+                }
+                w.println("/**");
+                w.println(" * Binds the arguments of {@link " + algorithm + "}, generated by " + ParamProcessor.class.getSimpleName() + ".");
+                w.println(" */");
+                w.println("public final class " + simple + " implements " + BINDER + "<" + algorithm + "> {");
+                w.println();
+                w.println("    @Override");
+                w.println("    public boolean set(" + algorithm + " algorithm, String name, Object value) {");
+                w.println("        switch (name) {");
+                for (Map.Entry<String, VariableElement> e : parameters.entrySet()) {
+                    VariableElement f = e.getValue();
+                    String field = "algorithm." + f.getSimpleName();
+                    w.println("            case \"" + e.getKey() + "\":");
+                    String converter = converter(f.asType());
+                    if (isList(f.asType())) {
+                        TypeMirror element = element(f.asType());
+                        String converted = "value";
+                        if (element != null && converter(element) != null) {
+                            converted = PLAN + "." + converter(element) + "(value)";
+                        } else if (element != null && !element.toString().equals(Object.class.getName())) {
+                            converted = "(" + processingEnv.getTypeUtils().erasure(element) + ") value";
+                        }
+                        w.println("                " + field + ".add(" + converted + ");");
+                    } else if (f.asType().getKind().isPrimitive()) {
+                        //as a missing argument, the default value is kept
+                        w.println("                if (value != null) {");
+                        w.println("                    " + field + " = " + PLAN + "." + converter + "(value);");
+                        w.println("                }");
+                    } else if (converter != null) {
+                        w.println("                " + field + " = " + PLAN + "." + converter + "(value);");
+                    } else {
+                        String cast = processingEnv.getTypeUtils().erasure(f.asType()).toString();
+                        w.println("                " + field + " = (" + cast + ") value;");
+                    }
+                    w.println("                return true;");
+                }
+                w.println("            default:");
+                w.println("                return false;");
+                w.println("        }");
+                w.println("    }");
+                w.println("}");
+            }
+        } catch (IOException ex) {
+            error(type, "Cannot generate the binder: " + ex.getMessage());
+        }
+    }
+
+    private void error(Element e, String message) {
+        this.errors++;
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+
+}
@@ -16,16 +16,19 @@
  */
 package info.ponciano.lab.knowdip.aee.algorithm.sparql;
 
-import info.ponciano.lab.knowdip.Knowdip;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
+import info.ponciano.lab.knowdip.aee.memory.Memory;
+import info.ponciano.lab.knowdip.aee.memory.PinnedResource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
-import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.jena.atlas.iterator.Iter;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.QueryBuildException;
 import org.apache.jena.sparql.core.Var;
@@ -33,7 +36,6 @@ import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.binding.BindingFactory;
-import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
 import org.apache.jena.sparql.pfunction.PFuncListAndList;
 import org.apache.jena.sparql.pfunction.PropFuncArg;
 
@@ -43,145 +45,175 @@ import org.apache.jena.sparql.pfunction.PropFuncArg;
  */
 public abstract class Algorithm extends PFuncListAndList {
 
+    /**
+     * Failure flag of the task observed by {@link #succeeds(Runnable)} in the
+     * current thread, {@code null} if no task is observed. The algorithms are
+     * executed by the thread evaluating the query, so each task only sees the
+     * failures of its own executions.
+     */
+    private static final ThreadLocal<boolean[]> FAILED = new ThreadLocal<>();
+
+    /**
+     * Resources of the memory used as arguments, pinned until the end of the
+     * execution so their version does not change while they are processed.
+     */
+    private final List<PinnedResource> pins = new ArrayList<>();
+    /**
+     * True if the arguments are variables, bound by each binding of the input
+     * of the execution.
+     */
+    private boolean deferred;
+
     @Override
     public final void build(PropFuncArg s, Node p, PropFuncArg o, ExecutionContext executionContext) {
         if (!o.isList()) {
             throw new QueryBuildException("The object must be a list of key-value formatted arguments."
                     + System.lineSeparator() + "Expected argument list (\"arg1=val1\" \"arg2=val2\" ...).");
         }
-        final List<Node> argList = o.getArgList();
-        /*
-	 * Initializes the parameters of the algorithm found in the argument list, given
-	 * by the object of the triple.
-         */
-        String stringParameter = "";
-        for (Node n : argList) {
-            // initializing arguments from nodes
-            try {
-                if (n.isLiteral()) {
-                    String litString = n.getLiteral().toString();
-                    //set the new parameter
-                    if (litString.contains("=")) {
-                        stringParameter = litString;
-                    } else {
-                        stringParameter += litString;
-                    }
-                } else if (n.isURI()) {
-                    stringParameter += n.getURI();
-                } else {
-                    throw new KnowdipException("Unsupported value in Algorithms:" + n);
-                }
-                String[] pair = stringParameter.split("=");
-                if (pair.length == 2) {
-                    String ps0 =pair[0].strip();
-
-                    String key = ps0.toString();
-                    key = key.substring(key.lastIndexOf('#') + 1, key.length());
-                    String value = pair[1];
-                    Object arg = null;
-                    if (Knowdip.get().getMemory().contains(value)) {
-                        // argument is a complex object, saved in memory
-                        arg = Knowdip.get().getMemory().access(value);
-                    } else// if the argument is a URI but not memorized
-                        if (value.contains("http:") && !value.contains("^^")) {
-                        arg = value;
-//                        if (!value.equals("http://lab.ponciano.info/knowdip#wall") && !value.equals("http://lab.ponciano.info/knowdip#floor")) {
-//                            throw new KnowdipException(value + "  is a uri that is not referenced in the memory. \n You should take the value corresponding to this uri. ");
-//                        } else {
-//                            throw new KnowdipException(value + " is depreciated");
-//                        }
-
-                    } else {
-                        // argument is a simple value
-
-                        String[] split = value.split("\\^\\^");
-                        if (split.length < 2) {
-                            arg = value;
-                        } else {
-                            if (split[0].isEmpty()) {
-                                arg = null;
-                            } else {
-                                String ps1 = split[1];
-                                ps1.replaceAll(Pattern.quote("<"), "");
-                                ps1.replaceAll(Pattern.quote(">"), "");
-                                ps1.replaceAll(Pattern.quote("xsd:"), "");
-                                //  final RDFDatatype typeByName = TypeMapper.getInstance().getTypeByName(piString.toString());
-                                // Literal literal = ResourceFactory.createTypedLiteral(split[0], typeByName);
-                                //                            arg = literal.getValue();
-                                String type = ps1.toString();
-                                if (type.contains("http://")) {
-                                    type = type.substring(type.lastIndexOf('#') + 1, type.length());
-                                }
-
-                                switch (type) {
-                                    case "double":
-                                        arg = Double.parseDouble(split[0]);
-                                        break;
-                                    case "float":
-                                        arg = Float.parseFloat(split[0]);
-                                        break;
-                                    case "int":
-                                        arg = Integer.parseInt(split[0]);
-                                        break;
-                                    case "integer":
-                                        arg = Integer.parseInt(split[0]);
-                                        break;
-                                    case "string":
-                                        arg = split[0];
-                                        break;
-                                    case "boolean":
-                                        arg = Boolean.valueOf(split[0]);
-                                        break;
-                                    default:
-                                        arg = value;
-                                        break;
-                                }
-                            }
-                        }
-                    }   //test if the key is already set
-                    //translation between algorithm and ontology TODO use ontology value
-                    if (key.equals("isAvailableOn")) {
-                        key = "hasInput";
-                    }
-                    Object field = FieldUtils.readDeclaredField(Algorithm.this, key, true);
-                    if (field instanceof List) {
-                        List list = (List) field;
-                        list.add(arg);
-                    } else {
-                        FieldUtils.writeDeclaredField(Algorithm.this, key, arg, true);
-                    }
-                } // else just wait the second parameter
-            } catch (KnowdipException | IllegalAccessException ex) {
-                Logger.getLogger(Algorithm.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
+        this.deferred = o.getArgList().stream().anyMatch(Node::isVariable);
+        if (!this.deferred) {
+            //the arguments are bound through the plan compiled for the class
+            BindingPlan.of(this.getClass()).bind(this, o.getArgList(), this.pins);
         }
     }
 
     @Override
     public QueryIterator exec(QueryIterator queryIt, PropFuncArg s, Node p, PropFuncArg o, ExecutionContext executionContext) {
+        if (this.deferred) {
+            return this.execAll(queryIt, s, o, executionContext);
+        }
+        Var out = Var.alloc(s.getArg());
         Iterable<Node> process = null;
+        Iterator<Node> nodes = Collections.emptyIterator();
+        //the resources allocated by the algorithm are attributed to it
+        String name = this.getClass().getSimpleName();
+        String site = Memory.setAllocationSite(name);
         try {
             process = process();
+            if (process != null) {
+                nodes = process.iterator();
+            }
         } catch (KnowdipException ex) {
+            failed();
             Logger.getLogger(Algorithm.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            Memory.setAllocationSite(site);
         }
-        List<Binding> bindings
-                = new ArrayList<>();
-        if (process != null) {
-            Iterator<Node> nodeIt
-                    = process.iterator();
-
-            while (nodeIt.hasNext()) {
-                Node n = nodeIt.next();
-                Binding b = BindingFactory.binding(Var.alloc(s.getArg()), n);
+        //the results are streamed, the arguments stay pinned until they are read
+        return new QueryIterAlgorithm(Iter.map(nodes, n -> BindingFactory.binding(out, n)), name,
+                this.release(Collections.singletonList(process)), executionContext);
+    }
 
-                bindings.add(b);
+    /**
+     * Executes the algorithm for each binding of the input. Each binding gives
+     * the values of the variable arguments to a new instance of the
+     * algorithm, and a {@link BatchAlgorithm} processes all the instances in
+     * a single call.
+     *
+     * @param queryIt bindings of the variables of the arguments
+     * @param s subject receiving the results
+     * @param o arguments of the algorithm
+     * @param executionContext context of the execution
+     * @return the bindings of the input extended with each result
+     */
+    @SuppressWarnings("unchecked")
+    private QueryIterator execAll(QueryIterator queryIt, PropFuncArg s, PropFuncArg o, ExecutionContext executionContext) {
+        List<Binding> inputs = new ArrayList<>();
+        queryIt.forEachRemaining(inputs::add);
+        queryIt.close();
+        List<Iterable<Node>> results = Collections.emptyList();
+        String name = this.getClass().getSimpleName();
+        String site = Memory.setAllocationSite(name);
+        try {
+            BindingPlan plan = BindingPlan.of(this.getClass());
+            List<Algorithm> calls = new ArrayList<>(inputs.size());
+            for (Binding b : inputs) {
+                List<Node> args = new ArrayList<>();
+                for (Node n : o.getArgList()) {
+                    args.add(n.isVariable() && b.contains(Var.alloc(n)) ? b.get(Var.alloc(n)) : n);
+                }
+                Algorithm call = this.getClass().getDeclaredConstructor().newInstance();
+                plan.bind(call, args, this.pins);
+                calls.add(call);
+            }
+            if (this instanceof BatchAlgorithm) {
+                results = ((BatchAlgorithm<Algorithm>) this).processAll(calls);
+            } else {
+                results = new ArrayList<>(calls.size());
+                for (Algorithm call : calls) {
+                    results.add(call.process());
+                }
+            }
+        } catch (KnowdipException | ReflectiveOperationException ex) {
+            failed();
+            Logger.getLogger(Algorithm.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            Memory.setAllocationSite(site);
+        }
+        Var out = Var.alloc(s.getArg());
+        List<Iterable<Node>> nodes = results;
+        Iterator<Binding> bindings = Iter.flatMap(IntStream.range(0, Math.min(inputs.size(), nodes.size())).iterator(),
+                i -> nodes.get(i) == null ? Collections.emptyIterator()
+                : Iter.map(nodes.get(i).iterator(), n -> BindingFactory.binding(inputs.get(i), out, n)));
+        return new QueryIterAlgorithm(bindings, name, this.release(results), executionContext);
+    }
 
+    /**
+     * Runs a task executing queries and tells if all the executions of
+     * algorithms it has run have succeeded. An execution whose failure is only
+     * logged returns no result, so the results of the task are complete only
+     * if it succeeds. A failure is also reported to the enclosing task, if
+     * any.
+     *
+     * @param task task executing queries in the current thread
+     * @return true if no execution of the task has failed
+     */
+    public static boolean succeeds(Runnable task) {
+        boolean[] enclosing = FAILED.get();
+        boolean[] failed = {false};
+        FAILED.set(failed);
+        try {
+            task.run();
+        } finally {
+            FAILED.set(enclosing);
+            if (enclosing != null && failed[0]) {
+                enclosing[0] = true;
             }
         }
-        return new QueryIterPlainWrapper(bindings
-                .iterator());
+        return !failed[0];
+    }
+
+    /**
+     * Records the failure of an execution for the task observing it.
+     */
+    private static void failed() {
+        boolean[] f = FAILED.get();
+        if (f != null) {
+            f[0] = true;
+        }
+    }
+
+    /**
+     * Creates the release of the resources used by an execution.
+     *
+     * @param sources results of the execution, closed if they are
+     * {@code AutoCloseable}
+     * @return the release, unpinning the arguments
+     */
+    private Runnable release(List<Iterable<Node>> sources) {
+        return () -> {
+            for (Iterable<Node> source : sources) {
+                if (source instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) source).close();
+                    } catch (Exception ex) {
+                        Logger.getLogger(Algorithm.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }
+            this.pins.forEach(PinnedResource::close);
+            this.pins.clear();
+        };
     }
 
     @Override
@@ -217,9 +249,44 @@ public abstract class Algorithm extends PFuncListAndList {
 
     }
 
+    /**
+     * Adapts a stream of results, so that they are produced while the query
+     * reads them. The stream is closed when the results are exhausted, the
+     * query is closed or cancelled.
+     *
+     * @param stream lazy stream of the results
+     * @return the results to be returned by {@link #process()}
+     */
+    protected static Iterable<Node> lazy(Stream<Node> stream) {
+        return new NodeStream(stream);
+    }
+
+    /**
+     * Results of an algorithm backed by a stream, which can be iterated once.
+     */
+    private static final class NodeStream implements Iterable<Node>, AutoCloseable {
+
+        private final Stream<Node> stream;
+
+        NodeStream(Stream<Node> stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return this.stream.iterator();
+        }
+
+        @Override
+        public void close() {
+            this.stream.close();
+        }
+    }
+
     /**
      * To be implemented with the set of procedures that generate the results of
-     * the algorithm.
+     * the algorithm. The results can be lazy, they are read while the query
+     * is executed.
      *
      * @return an iterator of the nodes containing the results
      * @throws info.ponciano.lab.knowdip.KnowdipException if something wrong
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+/**
+ * Assigns the arguments of a call to the parameters of an algorithm. The
+ * binders are generated at compile time from the {@link Param} fields and
+ * named after the algorithm with the suffix {@value #SUFFIX}.
+ *
+ * @param <A> class of the algorithm
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public interface ArgumentBinder<A extends Algorithm> {
+
+    /**
+     * Suffix of the name of the generated binders.
+     */
+    public static final String SUFFIX = "_Binder";
+
+    /**
+     * Assigns the value of an argument to a parameter.
+     *
+     * @param algorithm algorithm receiving the argument
+     * @param name name of the parameter
+     * @param value value of the argument, converted to the type of the
+     * parameter
+     * @return false if the algorithm has no such parameter
+     */
+    public boolean set(A algorithm, String name, Object value);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+import info.ponciano.lab.knowdip.aee.KnowdipException;
+import java.util.List;
+import org.apache.jena.graph.Node;
+
+/**
+ * Algorithm executed at once for all the bindings of a rule.
+ * <p>
+ * When the arguments of a call are variables, for example when a rule is
+ * executed with all the {@code (hasInput, patchID)} pairs of its select, the
+ * algorithm receives one instance bound to the arguments of each binding and
+ * returns all the results in a single call, instead of being executed by one
+ * query per binding.</p>
+ *
+ * @param <A> class of the algorithm
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public interface BatchAlgorithm<A extends Algorithm> {
+
+    /**
+     * Executes the algorithm for several calls.
+     *
+     * @param calls instances of the algorithm, each one bound to the arguments
+     * of a call
+     * @return the results of each call, in the order of the calls
+     * @throws KnowdipException if something wrong happen.
+     */
+    public List<Iterable<Node>> processAll(List<A> calls) throws KnowdipException;
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+import info.ponciano.lab.knowdip.Knowdip;
+import info.ponciano.lab.knowdip.aee.KnowdipException;
+import info.ponciano.lab.knowdip.aee.memory.Memory;
+import info.ponciano.lab.knowdip.aee.memory.PinnedResource;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.jena.datatypes.DatatypeFormatException;
+import org.apache.jena.graph.Node;
+
+/**
+ * Precompiled binding of the arguments of an algorithm to its fields.
+ * <p>
+ * A plan is compiled once per class of algorithm. If the algorithm declares
+ * {@link Param} fields, the plan uses the {@link ArgumentBinder} generated at
+ * compile time, which stores the arguments directly in the fields. Otherwise
+ * each parameter field gets a {@code VarHandle} and a converter to the type of
+ * the field. Binding the arguments of a call then only looks up the parameters
+ * by name and converts the literal values already parsed by Jena, without
+ * reflection nor string parsing of the datatypes.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class BindingPlan {
+
+    private static final ConcurrentMap<Class<?>, BindingPlan> PLANS = new ConcurrentHashMap<>();
+
+    /**
+     * Binding of a parameter field.
+     */
+    private static final class Parameter {
+
+        private final String name;
+        private final VarHandle handle;
+        /**
+         * True if the arguments are added to the list held by the field.
+         */
+        private final boolean list;
+        private final Function<Object, Object> converter;
+
+        Parameter(String name, VarHandle handle, boolean list, Function<Object, Object> converter) {
+            this.name = name;
+            this.handle = handle;
+            this.list = list;
+            this.converter = converter;
+        }
+
+        @SuppressWarnings("unchecked")
+        void set(Algorithm algorithm, Object value) {
+            if (list) {
+                ((List<Object>) handle.get(algorithm)).add(value);
+                return;
+            }
+            Object v;
+            try {
+                v = converter.apply(value);
+            } catch (ClassCastException | NumberFormatException ex) {
+                throw new IllegalArgumentException("The value " + value + " cannot be assigned to the parameter "
+                        + name + " of type " + handle.varType().getSimpleName(), ex);
+            }
+            if (v == null && handle.varType().isPrimitive()) {
+                //as a missing argument, the default value is kept
+                return;
+            }
+            handle.set(algorithm, v);
+        }
+    }
+
+    /**
+     * Key and inline value of an argument literal {@code "key=value"}.
+     */
+    private static final class Key {
+
+        private final String name;
+        /**
+         * Value following the equal sign, {@code null} if the value is the
+         * next node of the argument list.
+         */
+        private final String value;
+
+        Key(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private final Class<? extends Algorithm> type;
+    /**
+     * Binder generated for the algorithm, {@code null} if it has none.
+     */
+    private final ArgumentBinder<Algorithm> binder;
+    private final Map<String, Parameter> parameters;
+    /**
+     * Keys of the argument literals already met.
+     */
+    private final ConcurrentMap<String, Key> keys;
+
+    private BindingPlan(Class<? extends Algorithm> type) {
+        this.type = type;
+        this.parameters = new HashMap<>();
+        this.keys = new ConcurrentHashMap<>();
+        this.binder = binder(type);
+        if (this.binder != null) {
+            return;
+        }
+        //without annotation, all the fields are parameters
+        boolean annotated = false;
+        for (Class<?> c = type; c != Algorithm.class && c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                annotated |= f.isAnnotationPresent(Param.class);
+            }
+        }
+        try {
+            for (Class<?> c = type; c != Algorithm.class && c != null; c = c.getSuperclass()) {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+                for (Field f : c.getDeclaredFields()) {
+                    int m = f.getModifiers();
+                    Param param = f.getAnnotation(Param.class);
+                    if (Modifier.isStatic(m) || (annotated && param == null)) {
+                        continue;
+                    }
+                    String name = param == null || param.value().isEmpty() ? f.getName() : param.value();
+                    if (this.parameters.containsKey(name)) {
+                        continue;
+                    }
+                    VarHandle h = lookup.unreflectVarHandle(f);
+                    boolean list = List.class.isAssignableFrom(f.getType());
+                    if (!list && Modifier.isFinal(m)) {
+                        continue;
+                    }
+                    this.parameters.put(name, new Parameter(name, h, list, converter(f.getType())));
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("The parameters of " + type.getName() + " are not accessible", ex);
+        }
+    }
+
+    /**
+     * Loads the binder generated for a class of algorithm.
+     *
+     * @param type class of the algorithm
+     * @return the binder or {@code null} if none has been generated
+     */
+    @SuppressWarnings("unchecked")
+    private static ArgumentBinder<Algorithm> binder(Class<? extends Algorithm> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        name = name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + ArgumentBinder.SUFFIX;
+        try {
+            Class<?> c = Class.forName(name, true, type.getClassLoader());
+            return (ArgumentBinder<Algorithm>) c.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new IllegalArgumentException("The binder of " + type.getName() + " cannot be created", ex);
+        }
+    }
+
+    /**
+     * Gets the plan of a class of algorithm, compiling it on the first call.
+     *
+     * @param type class of the algorithm
+     * @return the binding plan of the class
+     */
+    public static BindingPlan of(Class<? extends Algorithm> type) {
+        return PLANS.computeIfAbsent(type, k -> new BindingPlan(type));
+    }
+
+    /**
+     * Binds the arguments of a call to the fields of an algorithm. The
+     * arguments are literals {@code "key=value"} or literals {@code "key="}
+     * followed by the value node. Values identifying a resource of the memory
+     * are replaced by the resource, pinned until the end of the call.
+     *
+     * @param algorithm instance of the class of the plan
+     * @param args arguments of the call
+     * @param pins receives the resources pinned
+     */
+    void bind(Algorithm algorithm, List<Node> args, List<PinnedResource> pins) {
+        Key pending = null;
+        for (Node n : args) {
+            if (!n.isLiteral() && !n.isURI()) {
+                Logger.getLogger(BindingPlan.class.getName()).log(Level.SEVERE, null,
+                        new KnowdipException("Unsupported value in Algorithms:" + n));
+                continue;
+            }
+            if (pending == null) {
+                if (!n.isLiteral()) {
+                    //a URI is only a value of a pending key
+                    continue;
+                }
+                Key k = this.key(n.getLiteralLexicalForm());
+                if (k == null) {
+                    //not a parameter, as the former concatenation ignored it
+                    continue;
+                }
+                if (k.value == null) {
+                    pending = k;
+                } else {
+                    this.assign(algorithm, k.name, this.resolve(k.value, pins));
+                }
+            } else {
+                this.assign(algorithm, pending.name, this.value(n, pins));
+                pending = null;
+            }
+        }
+    }
+
+    private void assign(Algorithm algorithm, String key, Object value) {
+        if (this.binder != null) {
+            boolean found;
+            try {
+                found = this.binder.set(algorithm, key, value);
+            } catch (ClassCastException | NumberFormatException ex) {
+                throw new IllegalArgumentException("The value " + value + " cannot be assigned to the parameter "
+                        + key + " of " + type.getName(), ex);
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Cannot locate the parameter " + key + " in " + type.getName());
+            }
+            return;
+        }
+        Parameter p = this.parameters.get(key);
+        if (p == null) {
+            throw new IllegalArgumentException("Cannot locate the parameter " + key + " in " + type.getName());
+        }
+        p.set(algorithm, value);
+    }
+
+    /**
+     * Parses an argument literal, the result is cached.
+     *
+     * @param lexical lexical form of the literal
+     * @return the key or {@code null} if the literal has no equal sign
+     */
+    private Key key(String lexical) {
+        Key k = this.keys.get(lexical);
+        if (k != null) {
+            return k;
+        }
+        int eq = lexical.indexOf('=');
+        if (eq < 0) {
+            return null;
+        }
+        String name = lexical.substring(0, eq).strip();
+        name = name.substring(name.lastIndexOf('#') + 1);
+        //translation between algorithm and ontology TODO use ontology value
+        if (name.equals("isAvailableOn")) {
+            name = "hasInput";
+        }
+        String value = lexical.substring(eq + 1);
+        k = new Key(name, value.isBlank() ? null : value);
+        this.keys.putIfAbsent(lexical, k);
+        return k;
+    }
+
+    /**
+     * Gets the value of an argument node.
+     */
+    private Object value(Node n, List<PinnedResource> pins) {
+        if (n.isURI()) {
+            return this.resolve(n.getURI(), pins);
+        }
+        if (n.getLiteralLexicalForm().isEmpty() && !n.getLiteralDatatypeURI().endsWith("#string")) {
+            return null;
+        }
+        Object v;
+        try {
+            v = n.getLiteralValue();
+        } catch (DatatypeFormatException ex) {
+            v = n.getLiteralLexicalForm();
+        }
+        return v instanceof String ? this.resolve((String) v, pins) : v;
+    }
+
+    /**
+     * Replaces the URI of a resource of the memory by the resource.
+     *
+     * @param value a string argument
+     * @param pins receives the resource pinned
+     * @return the resource or the string itself
+     */
+    private Object resolve(String value, List<PinnedResource> pins) {
+        Memory memory = Knowdip.get().getMemory();
+        PinnedResource pin = memory.contains(value) ? memory.pin(value) : null;
+        if (pin == null) {
+            return value;
+        }
+        pins.add(pin);
+        return pin.get();
+    }
+
+    /**
+     * Creates the converter of the values assigned to a field.
+     *
+     * @param t type of the field
+     * @return the converter
+     */
+    private static Function<Object, Object> converter(Class<?> t) {
+        if (t == double.class || t == Double.class) {
+            return BindingPlan::asDouble;
+        } else if (t == float.class || t == Float.class) {
+            return BindingPlan::asFloat;
+        } else if (t == int.class || t == Integer.class) {
+            return BindingPlan::asInteger;
+        } else if (t == long.class || t == Long.class) {
+            return BindingPlan::asLong;
+        } else if (t == boolean.class || t == Boolean.class) {
+            return BindingPlan::asBoolean;
+        } else if (t == String.class) {
+            return BindingPlan::asString;
+        } else {
+            return v -> t.cast(v);
+        }
+    }
+
+    /**
+     * Converts an argument to a double, used by the generated binders.
+     *
+     * @param v a number or its lexical form
+     * @return the value or {@code null} if the argument is missing
+     */
+    public static Double asDouble(Object v) {
+        return v == null ? null : v instanceof Number ? ((Number) v).doubleValue() : Double.valueOf(v.toString().strip());
+    }
+
+    /**
+     * Converts an argument to a float, used by the generated binders.
+     *
+     * @param v a number or its lexical form
+     * @return the value or {@code null} if the argument is missing
+     */
+    public static Float asFloat(Object v) {
+        return v == null ? null : v instanceof Number ? ((Number) v).floatValue() : Float.valueOf(v.toString().strip());
+    }
+
+    /**
+     * Converts an argument to an integer, used by the generated binders.
+     *
+     * @param v a number or its lexical form
+     * @return the value or {@code null} if the argument is missing
+     */
+    public static Integer asInteger(Object v) {
+        return v == null ? null : v instanceof Number ? ((Number) v).intValue() : Integer.valueOf(v.toString().strip());
+    }
+
+    /**
+     * Converts an argument to a long, used by the generated binders.
+     *
+     * @param v a number or its lexical form
+     * @return the value or {@code null} if the argument is missing
+     */
+    public static Long asLong(Object v) {
+        return v == null ? null : v instanceof Number ? ((Number) v).longValue() : Long.valueOf(v.toString().strip());
+    }
+
+    /**
+     * Converts an argument to a boolean, used by the generated binders.
+     *
+     * @param v a boolean or its lexical form
+     * @return the value or {@code null} if the argument is missing
+     */
+    public static Boolean asBoolean(Object v) {
+        return v == null ? null : v instanceof Boolean ? (Boolean) v : Boolean.valueOf(v.toString().strip());
+    }
+
+    /**
+     * Converts an argument to a string, used by the generated binders.
+     *
+     * @param v any argument
+     * @return the string or {@code null} if the argument is missing
+     */
+    public static String asString(Object v) {
+        return v == null ? null : v.toString();
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+/**
+ * Algorithm whose results can be reused by the rules.
+ * <p>
+ * The results of a call only depend on its arguments and on the content of
+ * the memory resources given as arguments, so they are reused as long as
+ * these resources are not replaced. Algorithms reading files outside the
+ * memory, such as the loaders, must not implement this interface: a file can
+ * change while its path stays the same.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public interface CacheableAlgorithm {
+}
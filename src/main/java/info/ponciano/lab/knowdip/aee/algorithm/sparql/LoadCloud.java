@@ -20,8 +20,13 @@ import info.ponciano.lab.jpc.pointcloud.Pointcloud;
 import info.ponciano.lab.knowdip.Knowdip;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
+import info.ponciano.lab.knowdip.aee.memory.AsciiPointcloudReader;
+import info.ponciano.lab.knowdip.aee.memory.ColumnarPointcloud;
+import info.ponciano.lab.knowdip.aee.memory.LasReader;
 import info.ponciano.lab.knowdip.aee.memory.Memory;
+import info.ponciano.lab.knowdip.aee.memory.WritablePlyPointcloud;
 import java.util.Collections;
+import java.util.Set;
 
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -31,19 +36,32 @@ import java.util.UUID;
 
 public class LoadCloud extends Algorithm {
 
+    @Param
     String hasSource;
+    /**
+     * Attributes read from a LAS file, for example "color,classification".
+     */
+    @Param
+    String hasAttributes;
     public static final String PATH = "hasSource";
 
     @Override
     protected Iterable<Node> process() throws KnowdipException {
         System.out.println("Point cloud loading: ");
+        Set<LasReader.Attribute> attributes = null;
+        if (hasAttributes != null) {
+            try {
+                attributes = LasReader.Attribute.parse(hasAttributes);
+            } catch (IllegalArgumentException e) {
+                throw new KnowdipException("Unknown attribute in " + hasAttributes, e);
+            }
+        }
         try {
             Pointcloud cloud;
             if (hasSource == null) {
                 cloud = new Pointcloud();
             } else {
-                cloud = new Pointcloud();
-                cloud.loadASCII(hasSource);
+                cloud = read(hasSource, attributes).toPointcloud();
                 System.out.println("Point cloud loaded: " + cloud.size());
             }
             Node s = Knowdip.createNode(UUID.randomUUID().toString());
@@ -51,7 +69,29 @@ public class LoadCloud extends Algorithm {
             return Collections.singleton(s);
         } catch (IOException e) {
             throw new KnowdipException("The file  " + hasSource + " does not exist of cannot be open!");
+        } catch (IllegalArgumentException e) {
+            throw new KnowdipException("The file " + hasSource + " cannot be read: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a point cloud with the reader corresponding to the extension of
+     * the file, ASCII if the extension is unknown.
+     *
+     * @param path path of the file
+     * @param attributes attributes read from a LAS file, {@code null} for the
+     * default ones
+     * @return the columns of the points
+     * @throws IOException if the file cannot be read
+     */
+    private static ColumnarPointcloud read(String path, Set<LasReader.Attribute> attributes) throws IOException {
+        String ext = path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+        if (ext.equals(LasReader.EXT)) {
+            return attributes == null ? LasReader.read(path) : LasReader.read(path, attributes);
+        } else if (ext.equals(WritablePlyPointcloud.EXT)) {
+            return WritablePlyPointcloud.load(path);
         }
+        return AsciiPointcloudReader.read(path);
     }
 
 }
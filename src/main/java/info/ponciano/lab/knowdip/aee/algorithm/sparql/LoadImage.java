@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+import info.ponciano.lab.knowdip.Knowdip;
+import info.ponciano.lab.knowdip.aee.KnowdipException;
+import info.ponciano.lab.knowdip.aee.memory.Raster;
+import info.ponciano.lab.knowdip.aee.memory.WritableRaster;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.UUID;
+import org.apache.jena.graph.Node;
+
+/**
+ * Loads an image file in the memory as a tiled raster. Files in the
+ * {@code .krt} raster format are mapped without being read, other formats are
+ * decoded with ImageIO strip by strip in a mapped raster.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class LoadImage extends Algorithm {
+
+    @Param
+    String hasSource;
+
+    @Override
+    protected Iterable<Node> process() throws KnowdipException {
+        try {
+            Raster raster;
+            if (hasSource.endsWith("." + WritableRaster.EXT)) {
+                raster = Raster.open(hasSource);
+            } else {
+                raster = Raster.decode(hasSource);
+                if (raster == null) {
+                    throw new KnowdipException("The format of the image " + hasSource + " is not supported!");
+                }
+            }
+            Node s = Knowdip.createNode(UUID.randomUUID().toString());
+            Knowdip.get().getMemory().alloc(s.getURI(), raster);
+            return Collections.singleton(s);
+        } catch (IOException e) {
+            throw new KnowdipException("The file  " + hasSource + " does not exist or cannot be opened!");
+        }
+    }
+
+}
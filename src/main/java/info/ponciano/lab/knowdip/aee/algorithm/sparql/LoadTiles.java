@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+import info.ponciano.lab.knowdip.Knowdip;
+import info.ponciano.lab.knowdip.aee.KnowdipException;
+import info.ponciano.lab.knowdip.aee.memory.AsciiPointcloudReader;
+import info.ponciano.lab.knowdip.aee.memory.LasReader;
+import info.ponciano.lab.knowdip.aee.memory.PointcloudTiler;
+import info.ponciano.lab.knowdip.aee.memory.WritablePlyPointcloud;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+/**
+ * Loads a point cloud larger than the heap as square tiles of the XY plane.
+ * <p>
+ * The file is read in streaming and partitioned on the disk, then each tile
+ * is stored in the memory directory without being loaded: it is read on its
+ * first access and can be spilled again, so that the algorithms run tile by
+ * tile within the budget of the memory. Each tile is an individual.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class LoadTiles extends Algorithm {
+
+    @Param
+    String hasSource;
+    /**
+     * Length of the side of the tiles, in the unit of the coordinates.
+     */
+    @Param
+    double hasTileSize;
+    /**
+     * Attributes read from a LAS file, for example "color,classification".
+     */
+    @Param
+    String hasAttributes;
+
+    @Override
+    protected Iterable<Node> process() throws KnowdipException {
+        try (PointcloudTiler tiler = new PointcloudTiler(hasTileSize)) {
+            String ext = hasSource.substring(hasSource.lastIndexOf('.') + 1).toLowerCase();
+            if (ext.equals(LasReader.EXT)) {
+                LasReader.stream(hasSource, hasAttributes == null ? EnumSet.of(LasReader.Attribute.COLOR)
+                        : LasReader.Attribute.parse(hasAttributes), tiler);
+            } else if (ext.equals(WritablePlyPointcloud.EXT)) {
+                //PLY files are read at once, as columns
+                tiler.accept(WritablePlyPointcloud.load(hasSource));
+            } else {
+                AsciiPointcloudReader.stream(hasSource, tiler);
+            }
+            List<String> uris = tiler.store(Knowdip.get().getMemory(), "Tile_" + UUID.randomUUID());
+            List<Node> nodes = new ArrayList<>(uris.size());
+            uris.forEach(uri -> nodes.add(NodeFactory.createURI(uri)));
+            return nodes;
+        } catch (IOException e) {
+            throw new KnowdipException("The file " + hasSource + " cannot be tiled: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new KnowdipException("Invalid tiling of " + hasSource + ": " + e.getMessage());
+        }
+    }
+
+}
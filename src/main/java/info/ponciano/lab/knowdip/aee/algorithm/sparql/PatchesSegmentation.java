@@ -21,33 +21,22 @@ import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
 import info.ponciano.lab.knowdip.Knowdip;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import org.apache.jena.graph.Node;
 
-public class PatchesSegmentation extends Algorithm {
+public class PatchesSegmentation extends Algorithm implements CacheableAlgorithm {
 
+    @Param
     Pointcloud hasInput;
+    @Param
     double hasMaxSize;
 
     @Override
     protected Iterable<Node> process() throws KnowdipException {
-        List<Node> nodes = new ArrayList<>();
-//        if (!data.getClass().equals(Pointcloud.class)) {
-//            System.err.println("hasInput is not a point cloud in info.ponciano.lab.knowdip.aee.algorithm.mappc.PatchesSegmentation.process()");
-//        } else {
-//            Pointcloud pc = (Pointcloud) data;
-
-            Map<String, APointCloud> patches = hasInput.getPatches();
-            patches.forEach((String k, APointCloud cloud) -> {
-                Node node = Knowdip.createNode(k);
-                nodes.add(node);
-            });
-            System.out.println("Patches: " + nodes.size());
-//        }
-        return nodes;
-
+        Map<String, APointCloud> patches = hasInput.getPatches();
+        System.out.println("Patches: " + patches.size());
+        //the nodes of the patches are created while the query reads them
+        return lazy(patches.keySet().stream().map(Knowdip::createNode));
     }
 
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql;
+
+import info.ponciano.lab.knowdip.aee.memory.Memory;
+import java.util.Iterator;
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIter;
+import org.apache.jena.sparql.serializer.SerializationContext;
+
+/**
+ * Streams the results of an algorithm to the query engine.
+ * <p>
+ * The bindings are produced one at a time from the nodes returned by the
+ * algorithm, under the allocation site of the algorithm. The resources used
+ * by the algorithm are released as soon as the results are exhausted, the
+ * iterator is closed or the query is cancelled.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+final class QueryIterAlgorithm extends QueryIter {
+
+    private final Iterator<Binding> bindings;
+    /**
+     * Allocation site of the resources created while the results are
+     * produced.
+     */
+    private final String site;
+    /**
+     * Closes the sources of the results and unpins the arguments.
+     */
+    private final Runnable release;
+    private volatile boolean cancelled;
+    private boolean released;
+
+    /**
+     * Creates the iterator of the results of an algorithm.
+     *
+     * @param bindings lazy bindings of the results
+     * @param site allocation site of the algorithm
+     * @param release called once when the results are no longer read
+     * @param execCxt context of the execution
+     */
+    QueryIterAlgorithm(Iterator<Binding> bindings, String site, Runnable release, ExecutionContext execCxt) {
+        super(execCxt);
+        this.bindings = bindings;
+        this.site = site;
+        this.release = release;
+    }
+
+    @Override
+    protected boolean hasNextBinding() {
+        if (this.released) {
+            return false;
+        }
+        if (this.cancelled) {
+            this.release();
+            return false;
+        }
+        String previous = Memory.setAllocationSite(this.site);
+        try {
+            boolean hasNext = this.bindings.hasNext();
+            if (!hasNext) {
+                this.release();
+            }
+            return hasNext;
+        } finally {
+            Memory.setAllocationSite(previous);
+        }
+    }
+
+    @Override
+    protected Binding moveToNextBinding() {
+        String previous = Memory.setAllocationSite(this.site);
+        try {
+            return this.bindings.next();
+        } finally {
+            Memory.setAllocationSite(previous);
+        }
+    }
+
+    @Override
+    protected void closeIterator() {
+        this.release();
+    }
+
+    @Override
+    protected void requestCancel() {
+        //called asynchronously, the resources are released by the reader
+        this.cancelled = true;
+    }
+
+    private void release() {
+        if (!this.released) {
+            this.released = true;
+            this.release.run();
+        }
+    }
+
+    @Override
+    public void output(IndentedWriter out, SerializationContext sCxt) {
+        out.print(this.getClass().getSimpleName() + " " + this.site);
+    }
+}
@@ -17,11 +17,7 @@
 package info.ponciano.lab.knowdip.aee.algorithm.sparql.getter;
 
 import info.ponciano.lab.jpc.math.Color;
-import info.ponciano.lab.jpc.pointcloud.Pointcloud;
 import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
-import info.ponciano.lab.knowdip.aee.KnowdipException;
-import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
-import java.util.Collections;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -30,19 +26,12 @@ import org.apache.jena.graph.NodeFactory;
  *
  * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
  */
-public class GetPatchColor extends Algorithm {
-
-    Pointcloud hasInput;
-    String patchID;
+public class GetPatchColor extends PatchGetter {
 
     @Override
-    protected Iterable<Node> process() throws KnowdipException {
-        String localName = patchID.substring(patchID.lastIndexOf('#') + 1, patchID.length());
-        APointCloud patch = hasInput.get(localName);
+    protected Node value(APointCloud patch) {
         Color value = patch.getMeanColor();
-
-        return Collections.singleton(NodeFactory.createLiteralByValue(value.getRed() + "," + value.getGreen() + "," + value.getBlue(),
-                XSDDatatype.XSDstring));
-
+        return NodeFactory.createLiteralByValue(value.getRed() + "," + value.getGreen() + "," + value.getBlue(),
+                XSDDatatype.XSDstring);
     }
 }
@@ -16,11 +16,7 @@
  */
 package info.ponciano.lab.knowdip.aee.algorithm.sparql.getter;
 
-import info.ponciano.lab.jpc.pointcloud.Pointcloud;
 import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
-import info.ponciano.lab.knowdip.aee.KnowdipException;
-import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
-import java.util.Collections;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -29,19 +25,12 @@ import org.apache.jena.graph.NodeFactory;
  *
  * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
  */
-public class GetPatchDistanceY extends Algorithm {
-
-    Pointcloud hasInput;
-    String patchID;
+public class GetPatchDistanceY extends PatchGetter {
 
     @Override
-    protected Iterable<Node> process() throws KnowdipException {
-
-        String localName = patchID.substring(patchID.lastIndexOf('#') + 1, patchID.length());
-        APointCloud patch = hasInput.get(localName);
+    protected Node value(APointCloud patch) {
         double value = patch.getDy();
-
-        return Collections.singleton(NodeFactory.createLiteralByValue(value,
-                XSDDatatype.XSDdouble));
+        return NodeFactory.createLiteralByValue(value,
+                XSDDatatype.XSDdouble);
     }
 }
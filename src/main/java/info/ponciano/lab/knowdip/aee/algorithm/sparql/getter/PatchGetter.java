@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.algorithm.sparql.getter;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
+import info.ponciano.lab.knowdip.aee.KnowdipException;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.BatchAlgorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.CacheableAlgorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.Param;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.jena.graph.Node;
+
+/**
+ * Algorithm getting a value of a patch of a point cloud.
+ * <p>
+ * The getters are executed in batch: a rule computes the value of all its
+ * patches in a single call. Their results are cached.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public abstract class PatchGetter extends Algorithm implements BatchAlgorithm<PatchGetter>, CacheableAlgorithm {
+
+    @Param
+    Pointcloud hasInput;
+    @Param
+    String patchID;
+
+    /**
+     * Computes the value of a patch.
+     *
+     * @param patch patch of the point cloud
+     * @return the literal of the value
+     */
+    protected abstract Node value(APointCloud patch);
+
+    @Override
+    protected Iterable<Node> process() throws KnowdipException {
+        String localName = patchID.substring(patchID.lastIndexOf('#') + 1, patchID.length());
+        APointCloud patch = hasInput.get(localName);
+        return Collections.singleton(this.value(patch));
+    }
+
+    @Override
+    public List<Iterable<Node>> processAll(List<PatchGetter> calls) throws KnowdipException {
+        List<Iterable<Node>> results = new ArrayList<>(calls.size());
+        for (PatchGetter call : calls) {
+            results.add(call.process());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel reader of ASCII point clouds.
+ * <p>
+ * Each line holds the coordinates of a point, optionally followed by its red,
+ * green and blue components and by the name of its patch:
+ * {@code x y z [r g b [patch]]}. Values are separated by spaces, tabs, commas
+ * or semicolons, lines not starting with a number are skipped. Numeric
+ * columns following the color are ignored, the patch is the first
+ * non-numeric column after them.</p>
+ * <p>
+ * The file is mapped and split into chunks ending at line boundaries. The
+ * chunks are parsed on a fork-join pool directly from the mapped bytes into
+ * primitive arrays, without creating any string except for the patch
+ * names.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class AsciiPointcloudReader {
+
+    /**
+     * Largest chunk, a chunk is mapped at once.
+     */
+    private static final long MAX_CHUNK = 1L << 28;
+    /**
+     * Smallest chunk worth a task.
+     */
+    private static final long MIN_CHUNK = 1L << 20;
+    /**
+     * Size of the chunks read in streaming.
+     */
+    private static final long STREAM_CHUNK = 1L << 24;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private AsciiPointcloudReader() {
+    }
+
+    /**
+     * Reads an ASCII point cloud on the common fork-join pool.
+     *
+     * @param path path of the file
+     * @return the columns of the points
+     * @throws IOException if the file cannot be read
+     */
+    public static ColumnarPointcloud read(String path) throws IOException {
+        return read(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads an ASCII point cloud.
+     *
+     * @param path path of the file
+     * @param pool pool parsing the chunks
+     * @return the columns of the points
+     * @throws IOException if the file cannot be read
+     */
+    public static ColumnarPointcloud read(String path, ForkJoinPool pool) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final long size = ch.size();
+            long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (4L * pool.getParallelism()) + 1));
+            List<ChunkTask> tasks = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = start + target >= size ? size : lineEnd(ch, start + target, size);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Line too long in " + path);
+                }
+                tasks.add(new ChunkTask(ch.map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+                start = end;
+            }
+            List<Chunk> chunks = new ArrayList<>(tasks.size());
+            for (ChunkTask t : tasks) {
+                pool.execute(t);
+            }
+            for (ChunkTask t : tasks) {
+                chunks.add(t.join());
+            }
+            return merge(chunks);
+        }
+    }
+
+    /**
+     * Reads an ASCII point cloud by blocks, the whole file is never in the
+     * heap. The blocks are parsed in parallel on the common fork-join pool,
+     * a few at a time.
+     *
+     * @param path path of the file
+     * @param sink receives the blocks in the order of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static void stream(String path, PointcloudSink sink) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final long size = ch.size();
+            long start = 0;
+            while (start < size) {
+                List<ChunkTask> wave = new ArrayList<>();
+                while (start < size && wave.size() < pool.getParallelism()) {
+                    long end = start + STREAM_CHUNK >= size ? size : lineEnd(ch, start + STREAM_CHUNK, size);
+                    if (end - start > Integer.MAX_VALUE) {
+                        throw new IOException("Line too long in " + path);
+                    }
+                    ChunkTask t = new ChunkTask(ch.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                    pool.execute(t);
+                    wave.add(t);
+                    start = end;
+                }
+                for (ChunkTask t : wave) {
+                    sink.accept(merge(Collections.singletonList(t.join())));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the line containing a position.
+     *
+     * @param ch channel of the file
+     * @param pos position in the file
+     * @param size size of the file
+     * @return the position following the next new line, or the size of the
+     * file
+     * @throws IOException if the file cannot be read
+     */
+    private static long lineEnd(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static ColumnarPointcloud merge(List<Chunk> chunks) {
+        int n = 0;
+        for (Chunk c : chunks) {
+            n = Math.addExact(n, c.size);
+        }
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        Map<String, int[]> patches = new LinkedHashMap<>();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Chunk c : chunks) {
+            c.patches.forEach((name, list) -> counts.merge(name, list.size, Integer::sum));
+        }
+        counts.forEach((name, count) -> patches.put(name, new int[count]));
+        Map<String, Integer> filled = new LinkedHashMap<>();
+        int offset = 0;
+        for (Chunk c : chunks) {
+            System.arraycopy(c.x, 0, x, offset, c.size);
+            System.arraycopy(c.y, 0, y, offset, c.size);
+            System.arraycopy(c.z, 0, z, offset, c.size);
+            System.arraycopy(c.rgb, 0, rgb, offset, c.size);
+            for (Map.Entry<String, IntList> p : c.patches.entrySet()) {
+                int[] dst = patches.get(p.getKey());
+                int from = filled.getOrDefault(p.getKey(), 0);
+                IntList src = p.getValue();
+                for (int i = 0; i < src.size; i++) {
+                    dst[from + i] = src.values[i] + offset;
+                }
+                filled.put(p.getKey(), from + src.size);
+            }
+            offset += c.size;
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, patches.keySet().toArray(new String[0]),
+                patches.values().toArray(new int[0][]));
+    }
+
+    /**
+     * Points parsed from a chunk.
+     */
+    private static final class Chunk {
+
+        private double[] x;
+        private double[] y;
+        private double[] z;
+        private int[] rgb;
+        private int size;
+        private final Map<String, IntList> patches = new LinkedHashMap<>();
+
+        Chunk(int capacity) {
+            capacity = Math.max(capacity, 16);
+            this.x = new double[capacity];
+            this.y = new double[capacity];
+            this.z = new double[capacity];
+            this.rgb = new int[capacity];
+        }
+
+        int add(double px, double py, double pz, int c) {
+            if (size == x.length) {
+                int capacity = size + (size >> 1);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                z = Arrays.copyOf(z, capacity);
+                rgb = Arrays.copyOf(rgb, capacity);
+            }
+            x[size] = px;
+            y[size] = py;
+            z[size] = pz;
+            rgb[size] = c;
+            return size++;
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+
+    /**
+     * Parses the lines of a mapped chunk.
+     */
+    private static final class ChunkTask extends RecursiveTask<Chunk> {
+
+        private static final long serialVersionUID = 1L;
+        private final MappedByteBuffer buf;
+        /**
+         * Position of the parser in the chunk.
+         */
+        private int pos;
+        /**
+         * Values of the six columns of a point, followed by a slot for the
+         * numeric columns that are ignored.
+         */
+        private final double[] values = new double[7];
+
+        ChunkTask(MappedByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        protected Chunk compute() {
+            final int end = buf.limit();
+            //about 40 bytes per line in usual files
+            Chunk chunk = new Chunk(end / 40);
+            byte[] lastName = new byte[0];
+            String lastPatch = null;
+            IntList lastList = null;
+            while (pos < end) {
+                int count = 0;
+                skipSeparators(end);
+                while (count < 6 && pos < end && !isEndOfLine(buf.get(pos)) && this.number(end, count)) {
+                    count++;
+                    skipSeparators(end);
+                }
+                if (count < 3) {
+                    //a header or a comment
+                    this.nextLine(end);
+                    continue;
+                }
+                int c = 0;
+                if (count >= 6) {
+                    c = (color(values[3]) << 16) | (color(values[4]) << 8) | color(values[5]);
+                }
+                int index = chunk.add(values[0], values[1], values[2], c);
+                //numeric columns beyond the color, such as intensity or normals
+                while (count >= 6 && pos < end && !isEndOfLine(buf.get(pos)) && this.number(end, 6)) {
+                    skipSeparators(end);
+                }
+                if (count >= 6 && pos < end && !isEndOfLine(buf.get(pos))) {
+                    int from = pos;
+                    while (pos < end && !isSeparator(buf.get(pos)) && !isEndOfLine(buf.get(pos))) {
+                        pos++;
+                    }
+                    //consecutive points of a patch reuse its name
+                    if (lastPatch == null || !sameBytes(from, pos, lastName)) {
+                        lastName = new byte[pos - from];
+                        buf.get(from, lastName);
+                        lastPatch = new String(lastName, StandardCharsets.UTF_8);
+                        lastList = chunk.patches.computeIfAbsent(lastPatch, k -> new IntList());
+                    }
+                    lastList.add(index);
+                }
+                this.nextLine(end);
+            }
+            return chunk;
+        }
+
+        private boolean sameBytes(int from, int to, byte[] name) {
+            if (to - from != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (buf.get(from + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipSeparators(int end) {
+            while (pos < end && isSeparator(buf.get(pos))) {
+                pos++;
+            }
+        }
+
+        private void nextLine(int end) {
+            while (pos < end && buf.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        /**
+         * Parses a decimal number at the current position.
+         *
+         * @param end end of the chunk
+         * @param k index of the value to be set
+         * @return false if the token is not a number, the position is then
+         * unchanged
+         */
+        private boolean number(int end, int k) {
+            final int start = pos;
+            int p = pos;
+            boolean negative = false;
+            if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+                negative = buf.get(p) == '-';
+                p++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean any = false;
+            boolean exact = true;
+            byte b;
+            while (p < end && (b = buf.get(p)) >= '0' && b <= '9') {
+                any = true;
+                if (digits < 18) {
+                    if (mantissa != 0 || b != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                } else {
+                    scale++;
+                    exact = false;
+                }
+                p++;
+            }
+            if (p < end && buf.get(p) == '.') {
+                p++;
+                while (p < end && (b = buf.get(p)) >= '0' && b <= '9') {
+                    any = true;
+                    if (digits < 18) {
+                        if (mantissa != 0 || b != '0') {
+                            digits++;
+                        }
+                        mantissa = mantissa * 10 + (b - '0');
+                        scale--;
+                    } else if (b != '0') {
+                        exact = false;
+                    }
+                    p++;
+                }
+            }
+            if (!any) {
+                return false;
+            }
+            if (p < end && (buf.get(p) == 'e' || buf.get(p) == 'E')) {
+                int q = p + 1;
+                boolean negExp = false;
+                if (q < end && (buf.get(q) == '-' || buf.get(q) == '+')) {
+                    negExp = buf.get(q) == '-';
+                    q++;
+                }
+                int exp = 0;
+                boolean expDigits = false;
+                while (q < end && (b = buf.get(q)) >= '0' && b <= '9') {
+                    expDigits = true;
+                    exp = Math.min(exp * 10 + (b - '0'), 100000);
+                    q++;
+                }
+                if (expDigits) {
+                    scale += negExp ? -exp : exp;
+                    p = q;
+                }
+            }
+            if (p < end && !isSeparator(buf.get(p)) && !isEndOfLine(buf.get(p))) {
+                return false;
+            }
+            double v;
+            if (exact && mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+                //both operands are exact, the result is correctly rounded
+                v = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+            } else {
+                byte[] text = new byte[p - start];
+                buf.get(start, text);
+                v = Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+                negative = false;
+            }
+            values[k] = negative ? -v : v;
+            pos = p;
+            return true;
+        }
+
+        private static int color(double v) {
+            return Math.max(0, Math.min(255, (int) Math.round(v)));
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == ' ' || b == '\t' || b == ',' || b == ';';
+        }
+
+        private static boolean isEndOfLine(byte b) {
+            return b == '\n' || b == '\r';
+        }
+    }
+
+}
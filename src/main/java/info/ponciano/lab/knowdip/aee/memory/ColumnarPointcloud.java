@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.math.Color;
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
+import info.ponciano.lab.jpc.pointcloud.components.PointColor;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Point cloud stored as primitive columns (one array per coordinate, packed
+ * RGB colours and the index of the points belonging to each patch).
+ * <p>
+ * It is the exchange structure between {@code Pointcloud} and the binary
+ * codecs of the memory: codecs only read and write arrays and never parse
+ * text.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class ColumnarPointcloud {
+
+    /**
+     * Estimated number of heap bytes used by a point of a point cloud.
+     */
+    static final long POINT_BYTES = 96;
+    /**
+     * Estimated number of heap bytes used by a reference to a point.
+     */
+    static final long REFERENCE_BYTES = 8;
+
+    private final int size;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] rgb;
+    private final String[] patchNames;
+    private final int[][] patchIndices;
+    /**
+     * Normal of each point, {@code null} if the normals are unknown.
+     */
+    private final float[][] normals;
+
+    /**
+     * Creates a columnar point cloud from its columns.
+     *
+     * @param x X coordinates
+     * @param y Y coordinates
+     * @param z Z coordinates
+     * @param rgb colours packed as {@code 0xRRGGBB}
+     * @param patchNames name of each patch
+     * @param patchIndices indices of the points of each patch
+     */
+    public ColumnarPointcloud(double[] x, double[] y, double[] z, int[] rgb, String[] patchNames, int[][] patchIndices) {
+        this(x, y, z, rgb, patchNames, patchIndices, null);
+    }
+
+    /**
+     * Creates a columnar point cloud from its columns and the normals of its
+     * points.
+     *
+     * @param x X coordinates
+     * @param y Y coordinates
+     * @param z Z coordinates
+     * @param rgb colours packed as {@code 0xRRGGBB}
+     * @param patchNames name of each patch
+     * @param patchIndices indices of the points of each patch
+     * @param normals X, Y and Z components of the normals, {@code null} if
+     * they are unknown
+     */
+    public ColumnarPointcloud(double[] x, double[] y, double[] z, int[] rgb, String[] patchNames, int[][] patchIndices,
+            float[][] normals) {
+        if (normals != null && (normals.length != 3 || normals[0].length != x.length
+                || normals[1].length != x.length || normals[2].length != x.length)) {
+            throw new IllegalArgumentException("Normals must have three components for each point");
+        }
+        if (y.length != x.length || z.length != x.length || rgb.length != x.length) {
+            throw new IllegalArgumentException("Columns must have the same length");
+        }
+        if (patchNames.length != patchIndices.length) {
+            throw new IllegalArgumentException("Each patch must have a name and indices");
+        }
+        this.size = x.length;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.rgb = rgb;
+        this.patchNames = patchNames;
+        this.patchIndices = patchIndices;
+        this.normals = normals;
+    }
+
+    /**
+     * Extracts the columns of a point cloud. The points of the patches are
+     * found by identity in a table of primitive integers, a point can belong
+     * to several patches.
+     *
+     * @param cloud point cloud to be converted
+     * @return the columnar representation of the cloud and its patches
+     */
+    public static ColumnarPointcloud of(Pointcloud cloud) {
+        APointCloud points = cloud.getPoints();
+        final int n = points.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        for (int i = 0; i < n; i++) {
+            PointColor p = points.get(i);
+            x[i] = p.getX();
+            y[i] = p.getY();
+            z[i] = p.getZ();
+            rgb[i] = pack(p.getColor());
+        }
+        Map<String, APointCloud> patches = cloud.getPatches();
+        String[] names = new String[patches.size()];
+        int[][] indices = new int[patches.size()][];
+        int[] table = patches.isEmpty() ? null : positions(points);
+        int k = 0;
+        for (Map.Entry<String, APointCloud> e : patches.entrySet()) {
+            APointCloud patch = e.getValue();
+            int[] idx = new int[patch.size()];
+            for (int j = 0; j < idx.length; j++) {
+                idx[j] = position(table, points, patch.get(j));
+                if (idx[j] < 0) {
+                    throw new InternalError("The patch " + e.getKey() + " contains a point that is not in its cloud");
+                }
+            }
+            names[k] = e.getKey();
+            indices[k] = idx;
+            k++;
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, names, indices);
+    }
+
+    /**
+     * Builds an open addressing table giving the index of each point from its
+     * identity.
+     *
+     * @param points points of a cloud
+     * @return the index of each point at the first free slot from the hash
+     * of its identity, -1 for the free slots
+     */
+    private static int[] positions(APointCloud points) {
+        final int n = points.size();
+        int[] table = new int[Integer.highestOneBit(Math.max(n, 1)) << 2];
+        Arrays.fill(table, -1);
+        final int mask = table.length - 1;
+        for (int i = 0; i < n; i++) {
+            int slot = hash(points.get(i)) & mask;
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+        return table;
+    }
+
+    /**
+     * Finds the index of a point in the table built by
+     * {@link #positions(APointCloud)}.
+     *
+     * @param table table of the points
+     * @param points points of the cloud
+     * @param p point searched
+     * @return the index of the point or -1 if it is not in the cloud
+     */
+    private static int position(int[] table, APointCloud points, PointColor p) {
+        final int mask = table.length - 1;
+        int slot = hash(p) & mask;
+        while (table[slot] >= 0) {
+            if (points.get(table[slot]) == p) {
+                return table[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(Object o) {
+        int h = System.identityHashCode(o);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Builds the point cloud described by the columns. The points are added
+     * in the order of the columns, then each patch receives the points of its
+     * indices, so a point can belong to several patches.
+     *
+     * @return a new point cloud with its patches.
+     */
+    public Pointcloud toPointcloud() {
+        Pointcloud cloud = new Pointcloud();
+        PointColor[] points = new PointColor[size];
+        for (int i = 0; i < size; i++) {
+            int c = rgb[i];
+            points[i] = new PointColor(x[i], y[i], z[i], (c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+            cloud.add(points[i]);
+        }
+        Map<String, APointCloud> patches = cloud.getPatches();
+        for (int k = 0; k < patchIndices.length; k++) {
+            //the points of the patch are gathered without being copied
+            Pointcloud patch = new Pointcloud();
+            for (int i : patchIndices[k]) {
+                patch.add(points[i]);
+            }
+            patches.put(patchNames[k], patch.getPoints());
+        }
+        return cloud;
+    }
+
+    /**
+     * Packs a colour in an integer.
+     *
+     * @param c colour to be packed
+     * @return the colour as {@code 0xRRGGBB}
+     */
+    public static int pack(Color c) {
+        if (c == null) {
+            return 0;
+        }
+        return (c.getRed() & 0xFF) << 16 | (c.getGreen() & 0xFF) << 8 | (c.getBlue() & 0xFF);
+    }
+
+    /**
+     * Estimates the number of heap bytes used by a point cloud: its points
+     * and the references held by its patches.
+     *
+     * @param cloud point cloud
+     * @return the estimated size in bytes
+     */
+    public static long heapBytes(Pointcloud cloud) {
+        long references = 0;
+        for (APointCloud patch : cloud.getPatches().values()) {
+            references += patch.size();
+        }
+        return cloud.size() * POINT_BYTES + references * REFERENCE_BYTES;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public double[] getZ() {
+        return z;
+    }
+
+    public int[] getRGB() {
+        return rgb;
+    }
+
+    public String[] getPatchNames() {
+        return patchNames;
+    }
+
+    public int[][] getPatchIndices() {
+        return patchIndices;
+    }
+
+    /**
+     * @return the X, Y and Z components of the normals, {@code null} if they
+     * are unknown
+     */
+    public float[][] getNormals() {
+        return normals;
+    }
+
+}
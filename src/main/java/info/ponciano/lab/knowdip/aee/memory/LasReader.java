@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reader of binary LAS files, versions 1.2 to 1.4, point formats 0 to 10.
+ * <p>
+ * The point records are read through mapped windows and the coordinates are
+ * scaled and offset directly into primitive arrays. Only the fields of the
+ * selected attributes are read. Compressed files (LAZ) are not
+ * supported.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class LasReader {
+
+    public static final String EXT = "las";
+
+    /**
+     * Optional attributes read in addition to the coordinates.
+     */
+    public enum Attribute {
+        /**
+         * RGB colour, reduced to 8 bits per component.
+         */
+        COLOR,
+        /**
+         * Intensity, stored as a grey level when the colour is not read or
+         * not available.
+         */
+        INTENSITY,
+        /**
+         * Classification, each class becomes a patch named {@code class<code>}.
+         */
+        CLASSIFICATION;
+
+        /**
+         * Parses a list of attribute names separated by commas or spaces.
+         *
+         * @param names names of the attributes, case insensitive
+         * @return the attributes
+         */
+        public static Set<Attribute> parse(String names) {
+            Set<Attribute> set = EnumSet.noneOf(Attribute.class);
+            for (String n : names.trim().split("[\\s,]+")) {
+                if (!n.isEmpty()) {
+                    set.add(Attribute.valueOf(n.toUpperCase()));
+                }
+            }
+            return set;
+        }
+    }
+
+    private static final int MAGIC = 0x4653414C;
+    /**
+     * Largest region mapped at once.
+     */
+    private static final long WINDOW = 1L << 30;
+    /**
+     * Number of points sampled to detect colours stored on 8 bits.
+     */
+    private static final int COLOR_SAMPLE = 1024;
+    /**
+     * Number of points of the blocks given by {@link #stream}.
+     */
+    private static final int STREAM_BLOCK = 1 << 20;
+
+    private LasReader() {
+    }
+
+    /**
+     * Reads the coordinates and the colours of a LAS file.
+     *
+     * @param path path of the file
+     * @return the columns of the points
+     * @throws IOException if the file cannot be read or is not a LAS file
+     */
+    public static ColumnarPointcloud read(String path) throws IOException {
+        return read(path, EnumSet.of(Attribute.COLOR));
+    }
+
+    /**
+     * Reads a LAS file.
+     *
+     * @param path path of the file
+     * @param attributes attributes to be read in addition to the coordinates
+     * @return the columns of the points
+     * @throws IOException if the file cannot be read or is not a LAS file
+     */
+    public static ColumnarPointcloud read(String path, Set<Attribute> attributes) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            Layout l = new Layout(ch, path, attributes);
+            if (l.count > Integer.MAX_VALUE - 8) {
+                throw new IOException("Too many points in " + path + ": " + l.count);
+            }
+            final int n = (int) l.count;
+            double[] x = new double[n];
+            double[] y = new double[n];
+            double[] z = new double[n];
+            int[] rgb = new int[n];
+            byte[] classOf = l.classes ? new byte[n] : null;
+            final int perWindow = (int) Math.max(1, WINDOW / l.recordLength);
+            for (int first = 0; first < n; first += perWindow) {
+                int points = Math.min(perWindow, n - first);
+                l.decode(l.map(ch, first, points), points, x, y, z, rgb, classOf, first);
+            }
+            return l.classes ? withClasses(x, y, z, rgb, classOf) : new ColumnarPointcloud(x, y, z, rgb, new String[0], new int[0][]);
+        }
+    }
+
+    /**
+     * Reads a LAS file by blocks of points, the whole file is never in the
+     * heap. The points of each class are a patch of the block.
+     *
+     * @param path path of the file
+     * @param attributes attributes to be read in addition to the coordinates
+     * @param sink receives the blocks in the order of the file
+     * @throws IOException if the file cannot be read or is not a LAS file
+     */
+    public static void stream(String path, Set<Attribute> attributes, PointcloudSink sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            Layout l = new Layout(ch, path, attributes);
+            for (long first = 0; first < l.count; first += STREAM_BLOCK) {
+                int points = (int) Math.min(STREAM_BLOCK, l.count - first);
+                double[] x = new double[points];
+                double[] y = new double[points];
+                double[] z = new double[points];
+                int[] rgb = new int[points];
+                byte[] classOf = l.classes ? new byte[points] : null;
+                l.decode(l.map(ch, first, points), points, x, y, z, rgb, classOf, 0);
+                sink.accept(l.classes ? withClasses(x, y, z, rgb, classOf)
+                        : new ColumnarPointcloud(x, y, z, rgb, new String[0], new int[0][]));
+            }
+        }
+    }
+
+    /**
+     * Layout of the point records of a file, read from its header.
+     */
+    private static final class Layout {
+
+        private final long dataOffset;
+        private final int format;
+        private final int recordLength;
+        private final long count;
+        private final double sx;
+        private final double sy;
+        private final double sz;
+        private final double ox;
+        private final double oy;
+        private final double oz;
+        private final int colorAt;
+        private final int classAt;
+        private final boolean color;
+        private final boolean intensity;
+        private final boolean classes;
+        /**
+         * Shift reducing the colour or the intensity to 8 bits, -1 until the
+         * first records are sampled.
+         */
+        private int shift = -1;
+
+        Layout(FileChannel ch, String path, Set<Attribute> attributes) throws IOException {
+            ByteBuffer h = ByteBuffer.allocate(375).order(ByteOrder.LITTLE_ENDIAN);
+            int read;
+            do {
+                read = ch.read(h, h.position());
+            } while (read > 0 && h.hasRemaining());
+            if (h.position() < 227 || h.getInt(0) != MAGIC) {
+                throw new IOException("Not a LAS file: " + path);
+            }
+            final int major = h.get(24);
+            final int minor = h.get(25);
+            if (major != 1 || minor < 0 || minor > 4) {
+                throw new IOException("Unsupported LAS version " + major + "." + minor);
+            }
+            this.dataOffset = Integer.toUnsignedLong(h.getInt(96));
+            final int rawFormat = h.get(104) & 0xFF;
+            if ((rawFormat & 0xC0) != 0) {
+                throw new IOException("Compressed LAS files are not supported: " + path);
+            }
+            this.format = rawFormat & 0x3F;
+            this.recordLength = Short.toUnsignedInt(h.getShort(105));
+            long n = Integer.toUnsignedLong(h.getInt(107));
+            if (minor >= 4 && h.position() >= 255) {
+                long extended = h.getLong(247);
+                if (extended > 0) {
+                    n = extended;
+                }
+            }
+            this.count = n;
+            this.sx = h.getDouble(131);
+            this.sy = h.getDouble(139);
+            this.sz = h.getDouble(147);
+            this.ox = h.getDouble(155);
+            this.oy = h.getDouble(163);
+            this.oz = h.getDouble(171);
+            this.colorAt = colorOffset(format);
+            this.classAt = format >= 6 ? 16 : 15;
+            if (format > 10 || recordLength < minLength(format)) {
+                throw new IOException("Unsupported LAS point format " + format + " of " + recordLength + " bytes");
+            }
+            this.color = attributes.contains(Attribute.COLOR) && colorAt >= 0;
+            this.intensity = attributes.contains(Attribute.INTENSITY) && !color;
+            this.classes = attributes.contains(Attribute.CLASSIFICATION);
+        }
+
+        MappedByteBuffer map(FileChannel ch, long first, int points) throws IOException {
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY,
+                    dataOffset + first * recordLength, (long) points * recordLength);
+            m.order(ByteOrder.LITTLE_ENDIAN);
+            return m;
+        }
+
+        /**
+         * Decodes mapped records in the columns.
+         *
+         * @param m mapped records
+         * @param points number of records
+         * @param from index of the first record in the columns
+         */
+        void decode(ByteBuffer m, int points, double[] x, double[] y, double[] z, int[] rgb, byte[] classOf, int from) {
+            if (shift < 0) {
+                shift = color ? colorShift(m, points, recordLength, colorAt)
+                        : intensity ? intensityShift(m, points, recordLength) : 0;
+            }
+            for (int i = 0, p = 0; i < points; i++, p += recordLength) {
+                final int k = from + i;
+                x[k] = m.getInt(p) * sx + ox;
+                y[k] = m.getInt(p + 4) * sy + oy;
+                z[k] = m.getInt(p + 8) * sz + oz;
+                if (color) {
+                    int r = Math.min(255, Short.toUnsignedInt(m.getShort(p + colorAt)) >> shift);
+                    int g = Math.min(255, Short.toUnsignedInt(m.getShort(p + colorAt + 2)) >> shift);
+                    int b = Math.min(255, Short.toUnsignedInt(m.getShort(p + colorAt + 4)) >> shift);
+                    rgb[k] = r << 16 | g << 8 | b;
+                } else if (intensity) {
+                    int v = Math.min(255, Short.toUnsignedInt(m.getShort(p + 12)) >> shift);
+                    rgb[k] = v << 16 | v << 8 | v;
+                }
+                if (classOf != null) {
+                    byte c = m.get(p + classAt);
+                    if (format < 6) {
+                        //the upper bits are the synthetic, key-point and withheld flags
+                        c &= 0x1F;
+                    }
+                    classOf[k] = c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the columns with a patch for each class.
+     */
+    private static ColumnarPointcloud withClasses(double[] x, double[] y, double[] z, int[] rgb, byte[] classOf) {
+        int[] classCounts = new int[256];
+        for (byte c : classOf) {
+            classCounts[c & 0xFF]++;
+        }
+        int used = 0;
+        for (int c : classCounts) {
+            used += c > 0 ? 1 : 0;
+        }
+        String[] names = new String[used];
+        int[][] indices = new int[used][];
+        int[] slot = new int[256];
+        for (int c = 0, s = 0; c < 256; c++) {
+            if (classCounts[c] > 0) {
+                names[s] = "class" + c;
+                indices[s] = new int[classCounts[c]];
+                slot[c] = s++;
+            }
+        }
+        int[] filled = new int[used];
+        for (int k = 0; k < classOf.length; k++) {
+            int s = slot[classOf[k] & 0xFF];
+            indices[s][filled[s]++] = k;
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, names, indices);
+    }
+
+    /**
+     * @param format point data format
+     * @return the position of the colour in a record, -1 if the format has no
+     * colour
+     */
+    private static int colorOffset(int format) {
+        switch (format) {
+            case 2:
+                return 20;
+            case 3:
+            case 5:
+                return 28;
+            case 7:
+            case 8:
+            case 10:
+                return 30;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param format point data format
+     * @return the minimal length of a record of the format
+     */
+    private static int minLength(int format) {
+        final int[] lengths = {20, 28, 26, 34, 57, 63, 30, 36, 38, 59, 67};
+        return format < lengths.length ? lengths[format] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Detects colours stored on 8 bits, which some writers do despite the
+     * specification.
+     *
+     * @return the shift reducing the colours to 8 bits
+     */
+    private static int colorShift(ByteBuffer m, int points, int recordLength, int colorAt) {
+        for (int i = 0, p = 0; i < Math.min(points, COLOR_SAMPLE); i++, p += recordLength) {
+            for (int c = 0; c < 3; c++) {
+                if (Short.toUnsignedInt(m.getShort(p + colorAt + 2 * c)) > 255) {
+                    return 8;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static int intensityShift(ByteBuffer m, int points, int recordLength) {
+        for (int i = 0, p = 0; i < Math.min(points, COLOR_SAMPLE); i++, p += recordLength) {
+            if (Short.toUnsignedInt(m.getShort(p + 12)) > 255) {
+                return 8;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -19,32 +19,340 @@ package info.ponciano.lab.knowdip.aee.memory;
 import info.ponciano.lab.jpc.pointcloud.Pointcloud;
 import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
 import info.ponciano.lab.knowdip.Knowdip;
+import info.ponciano.lab.knowdip.UriTable;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.util.UUID;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.management.BadAttributeValueExpException;
 import org.apache.commons.io.FileUtils;
 
 /**
  * Generates unique identifiers and stores instances of WritableResource.
+ * <p>
+ * The memory can be shared by several threads: reads are lock-free and
+ * writes only lock the entry being modified.</p>
+ * <p>
+ * With a byte budget, the least recently accessed resources are spilled to
+ * the memory directory when the budget is exceeded and reloaded
+ * transparently on their next access.</p>
  *
  * @see info.ponciano.lab.knowdip.aee.WritableResource
  * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
  */
-public class Memory {
+public class Memory implements Closeable {
 
-    private Map<String, WritableResource> data;
+    /**
+     * Extensions of the formats the memory can read.
+     */
+    private static final String[] EXTS = {WritableBinaryPointcloud.EXT, WritableCompressedPointcloud.EXT, WritablePointcloud.EXT, WritablePatchView.EXT, WritableRaster.EXT, WritablePlyPointcloud.EXT};
+    /**
+     * Name of the file associating each patch with its cloud, so patches can
+     * be found without loading the clouds.
+     */
+    private static final String PATCH_INDEX = "patches.index";
+    /**
+     * Step of the pipeline running in the current thread, recorded with the
+     * resources it allocates.
+     */
+    private static final ThreadLocal<String> SITE = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, MemoryEntry> data;
+    /**
+     * URI of each known patch or patch view associated with the URI of its
+     * parent cloud, both being canonical instances of the URI table.
+     */
+    private final ConcurrentMap<String, String> patches;
+    /**
+     * Views of the patches of the point clouds by cloud URI, computed on
+     * demand.
+     */
+    private final ConcurrentMap<String, Map<String, PatchView>> views;
+    /**
+     * Points of the views accessed as patches by view URI, valid as long as
+     * the entries of the view and of its parent are the current ones.
+     */
+    private final ConcurrentMap<String, Materialized> materialized;
+    /**
+     * URIs freed since the last checkpoint, their files have to be deleted.
+     */
+    private final Set<String> freed;
+    /**
+     * Extension of the format used to store point clouds.
+     */
+    private volatile String pointcloudFormat;
+    /**
+     * Directory where the resources are spilled, {@code null} if unknown.
+     */
+    private final String directory;
+    /**
+     * Maximum number of bytes of the resident resources, 0 for no limit.
+     */
+    private volatile long budget;
+    private final AtomicLong residentBytes;
+    /**
+     * Number of bytes of the resources chosen by an eviction and still being
+     * written, they are not counted twice by the concurrent evictions.
+     */
+    private final AtomicLong spilling;
+    private final AtomicLong clock;
+    /**
+     * Entries by time of their last access, the least recently accessed
+     * first. Entries accessed again or spilled since are removed lazily by
+     * the evictions.
+     */
+    private final ConcurrentSkipListMap<Long, MemoryEntry> recency;
+    /**
+     * Last version given to an entry. Versions are never reused, even after
+     * a free or a read, so a URI and a version always designate the same
+     * content.
+     */
+    private final AtomicLong versions;
+    private final AtomicLong evictions;
+    private final AtomicLong reloads;
+    private final AtomicLong patchHits;
+    private final AtomicLong patchMisses;
+    private final Object evictionLock;
+    /**
+     * Snapshot from which the memory has been read, {@code null} if it has
+     * been read from a directory.
+     */
+    private volatile MemorySnapshot snapshot;
+    private ExecutorService workers;
+    private int threads;
 
     public Memory() {
+        this(null);
+    }
+
+    /**
+     * Creates a memory spilling its resources in the given directory.
+     *
+     * @param directory path of the memory directory
+     */
+    public Memory(String directory) {
         super();
-        this.data = new HashMap<>();
+        this.data = new ConcurrentHashMap<>();
+        this.patches = new ConcurrentHashMap<>();
+        this.views = new ConcurrentHashMap<>();
+        this.materialized = new ConcurrentHashMap<>();
+        this.freed = ConcurrentHashMap.newKeySet();
+        this.pointcloudFormat = WritableBinaryPointcloud.EXT;
+        this.directory = directory;
+        this.budget = 0;
+        this.residentBytes = new AtomicLong();
+        this.spilling = new AtomicLong();
+        this.clock = new AtomicLong();
+        this.recency = new ConcurrentSkipListMap<>();
+        this.versions = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.reloads = new AtomicLong();
+        this.patchHits = new AtomicLong();
+        this.patchMisses = new AtomicLong();
+        this.evictionLock = new Object();
+        this.threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets the format used to write the point clouds allocated afterwards.
+     * Files of every known format are always readable.
+     *
+     * @param ext extension of the format: {@code kpc} (binary, default),
+     * {@code kpz} (compressed), {@code ply} (binary PLY) or {@code xyz}
+     * (ASCII)
+     */
+    public void setPointcloudFormat(String ext) {
+        if (!ext.equals(WritableBinaryPointcloud.EXT) && !ext.equals(WritableCompressedPointcloud.EXT)
+                && !ext.equals(WritablePlyPointcloud.EXT) && !ext.equals(WritablePointcloud.EXT)) {
+            throw new IllegalArgumentException("Unknown point cloud format: " + ext);
+        }
+        this.pointcloudFormat = ext;
+    }
+
+    /**
+     * Wraps a point cloud in the writable resource of the current format.
+     *
+     * @param cloud point cloud to be wrapped
+     * @return the writable resource
+     */
+    private WritableResource<?> wrap(Pointcloud cloud) {
+        if (this.pointcloudFormat.equals(WritableBinaryPointcloud.EXT)) {
+            return new WritableBinaryPointcloud(cloud);
+        } else if (this.pointcloudFormat.equals(WritableCompressedPointcloud.EXT)) {
+            return new WritableCompressedPointcloud(cloud);
+        } else if (this.pointcloudFormat.equals(WritablePlyPointcloud.EXT)) {
+            return new WritablePlyPointcloud(cloud);
+        } else {
+            return new WritablePointcloud(cloud);
+        }
+    }
+
+    /**
+     * Creates an empty writable resource able to read the given file.
+     *
+     * @param file name of the file
+     * @return the resource or {@code null} if the format is unknown
+     */
+    private WritableResource<?> reader(String file) {
+        WritableResource<?>[] readers = {new WritableBinaryPointcloud(), new WritableCompressedPointcloud(), new WritablePointcloud(), new WritablePatchView(), new WritableRaster(), new WritablePlyPointcloud()};
+        for (WritableResource<?> r : readers) {
+            if (r.hasRightExt(file)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the maximum number of bytes of resources kept in the heap. When the
+     * budget is exceeded, the least recently accessed resources are written
+     * in the memory directory and reloaded on their next access.
+     *
+     * @param bytes budget in bytes, 0 to keep every resource in the heap
+     */
+    public void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The budget cannot be negative: " + bytes);
+        }
+        if (bytes > 0 && this.directory == null) {
+            throw new IllegalStateException("A memory without directory cannot spill its resources");
+        }
+        this.budget = bytes;
+        this.evict(null);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the estimated number of bytes of the resources in the heap.
+     *
+     * @return the number of bytes of the resident resources.
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * Gets the number of resources spilled to disk since the creation of the
+     * memory.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of resources reloaded from disk since the creation of
+     * the memory.
+     *
+     * @return the number of reloads
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * Gets the number of patches found by searching every point cloud because
+     * they were not indexed.
+     *
+     * @return the number of hits of the patch search
+     */
+    public long getPatchHits() {
+        return patchHits.get();
+    }
+
+    /**
+     * Gets the number of patches searched in every point cloud without being
+     * found.
+     *
+     * @return the number of misses of the patch search
+     */
+    public long getPatchMisses() {
+        return patchMisses.get();
+    }
+
+    /**
+     * Sets the step of the pipeline running in the current thread. The
+     * resources allocated afterwards by the thread are attributed to it.
+     *
+     * @param site name of the step, {@code null} to clear it
+     * @return the previous step of the thread
+     */
+    public static String setAllocationSite(String site) {
+        String previous = SITE.get();
+        if (site == null) {
+            SITE.remove();
+        } else {
+            SITE.set(site);
+        }
+        return previous;
+    }
+
+    /**
+     * Takes a snapshot of the accounting of the memory. Sizes of resources
+     * never loaded since the memory has been read are unknown and not
+     * counted.
+     *
+     * @return the current statistics
+     */
+    public MemoryStats getStats() {
+        long entries = 0;
+        long resident = 0;
+        long points = 0;
+        long bytes = 0;
+        Map<String, Long> bySite = new TreeMap<>();
+        for (MemoryEntry e : this.data.values()) {
+            long b = e.getBytes();
+            entries++;
+            if (e.isResident()) {
+                resident++;
+            }
+            points += e.getPoints();
+            bytes += b;
+            String site = e.getSite() == null ? MemoryStats.UNKNOWN_SITE : e.getSite();
+            bySite.merge(site, b, Long::sum);
+        }
+        return new MemoryStats(entries, resident, points, bytes, this.residentBytes.get(), this.budget,
+                this.evictions.get(), this.reloads.get(), this.patchHits.get(), this.patchMisses.get(), bySite);
     }
 
     /**
@@ -54,9 +362,36 @@ public class Memory {
      * @param uri URI of the corresponding individual inside the ontology
      */
     public void alloc(String uri, Pointcloud cloud) {
-        this.data.put(uri, new WritablePointcloud(cloud));
+        MemoryEntry e = this.data.compute(UriTable.intern(uri), (k, old) -> {
+            this.freed.remove(k);
+            if (old != null) {
+                this.release(old);
+                this.unindex(k);
+            }
+            this.index(k, cloud);
+            return this.resident(k, wrap(cloud));
+        });
+        this.evict(e);
+    }
+
+    /**
+     * Allocates atomically a point cloud if the URI is not yet allocated. The
+     * function creating the cloud is called at most once per URI, even if
+     * several threads allocate the same URI at the same time.
+     *
+     * @param uri URI of the corresponding individual inside the ontology
+     * @param create function creating the point cloud from the URI
+     * @return the point cloud stored in the memory for the URI
+     */
+    public Object computeIfAbsent(String uri, Function<String, Pointcloud> create) {
+        MemoryEntry e = this.data.computeIfAbsent(UriTable.intern(uri), k -> {
+            this.freed.remove(k);
+            Pointcloud cloud = create.apply(k);
+            this.index(k, cloud);
+            return this.resident(k, wrap(cloud));
+        });
+        return this.load(e).getData();
     }
-//
 
     /**
      * Allocates a point cloud and creates an URI
@@ -71,53 +406,695 @@ public class Memory {
         return uri;
     }
 
+    /**
+     * Allocates a view on points of a point cloud of the memory.
+     *
+     * @param uri URI of the corresponding individual inside the ontology
+     * @param view view on the points of its parent
+     */
+    public void allocView(String uri, PatchView view) {
+        MemoryEntry e = this.data.compute(UriTable.intern(uri), (k, old) -> {
+            this.freed.remove(k);
+            if (old != null) {
+                this.release(old);
+                this.unindex(k);
+            }
+            this.link(k, view.getParent());
+            return this.resident(k, new WritablePatchView(view));
+        });
+        this.evict(e);
+    }
+
+    /**
+     * Allocates a raster image. The tiles of a raster read from a file stay
+     * mapped and are not counted in the budget.
+     *
+     * @param uri URI of the corresponding individual inside the ontology
+     * @param raster raster to be allocated
+     */
+    public void alloc(String uri, Raster raster) {
+        MemoryEntry e = this.data.compute(UriTable.intern(uri), (k, old) -> {
+            this.freed.remove(k);
+            if (old != null) {
+                this.release(old);
+                this.unindex(k);
+            }
+            return this.resident(k, new WritableRaster(raster));
+        });
+        this.evict(e);
+    }
+
+    /**
+     * Stores a point cloud in the memory directory without loading it in the
+     * heap: it is read on its first access, like a spilled resource. Its
+     * patches are indexed. Without memory directory the cloud is allocated in
+     * the heap.
+     *
+     * @param uri URI of the corresponding individual inside the ontology
+     * @param cloud columns of the point cloud
+     * @throws IOException if the cloud cannot be written
+     */
+    public void attach(String uri, ColumnarPointcloud cloud) throws IOException {
+        if (this.directory == null) {
+            this.alloc(uri, cloud.toPointcloud());
+            return;
+        }
+        final String key = UriTable.intern(uri);
+        final String file = path(this.directory, key, WritableBinaryPointcloud.EXT);
+        new File(this.directory).mkdirs();
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            WritableBinaryPointcloud.encode(cloud, ch);
+        }
+        this.data.compute(key, (k, old) -> {
+            this.freed.remove(k);
+            if (old != null) {
+                this.release(old);
+                this.unindex(k);
+            }
+            for (String name : cloud.getPatchNames()) {
+                this.patches.put(UriTable.qualify(name), k);
+            }
+            return new MemoryEntry(k, file, this.versions.incrementAndGet());
+        });
+    }
+
+    /**
+     * Gets the view of a patch, either allocated as a view or being a patch
+     * of a point cloud of the memory.
+     *
+     * @param uri URI of the patch
+     * @return the view of the patch or {@code null} if the patch is unknown
+     */
+    public PatchView getView(String uri) {
+        MemoryEntry e = this.data.get(uri);
+        if (e != null) {
+            Object d = this.load(e).getData();
+            return d instanceof PatchView ? (PatchView) d : null;
+        }
+        String parent = this.parentOf(uri);
+        if (parent == null) {
+            //unindexed patch, the search indexes its cloud
+            if (this.access(uri) == null) {
+                return null;
+            }
+            parent = this.parentOf(uri);
+        }
+        MemoryEntry p = parent == null ? null : this.data.get(parent);
+        if (p == null) {
+            return null;
+        }
+        final String cloudUri = parent;
+        Pointcloud cloud = (Pointcloud) this.load(p).getData();
+        Map<String, PatchView> v = this.views.computeIfAbsent(cloudUri, k -> PatchView.of(k, cloud));
+        return v.get(uri.substring(uri.lastIndexOf('#') + 1));
+    }
+
+    /**
+     * Gathers the points of views in a single point cloud sharing the points
+     * of the parent clouds. Each point is added once even if several views
+     * contain it.
+     *
+     * @param views views to be gathered
+     * @return the points of the views
+     */
+    public Pointcloud materialize(Collection<PatchView> views) {
+        Map<String, List<PatchView>> byParent = new LinkedHashMap<>();
+        views.forEach(v -> byParent.computeIfAbsent(v.getParent(), k -> new ArrayList<>()).add(v));
+        Pointcloud pc = new Pointcloud();
+        byParent.forEach((parent, list) -> {
+            Object cloud = this.access(parent);
+            if (!(cloud instanceof Pointcloud)) {
+                throw new InternalError("The parent " + parent + " of a view is not a point cloud in the memory");
+            }
+            PatchView union = PatchView.union(list);
+            for (int k = 0; k < union.size(); k++) {
+                pc.add(union.get((Pointcloud) cloud, k));
+            }
+        });
+        return pc;
+    }
+
     public void replace(String addr, Object o) {
-        if (!o.getClass().equals(Pointcloud.class)) {
+        if (o instanceof PatchView) {
+            PatchView view = (PatchView) o;
+            MemoryEntry e = this.data.computeIfPresent(addr, (k, old) -> {
+                this.release(old);
+                this.link(k, view.getParent());
+                return this.resident(k, new WritablePatchView(view));
+            });
+            this.evict(e);
+        } else if (o instanceof Raster) {
+            Raster raster = (Raster) o;
+            MemoryEntry e = this.data.computeIfPresent(addr, (k, old) -> {
+                this.release(old);
+                this.unindex(k);
+                return this.resident(k, new WritableRaster(raster));
+            });
+            this.evict(e);
+        } else if (!o.getClass().equals(Pointcloud.class)) {
             throw new InternalError("Alloc not implemented for " + o.getClass());
         } else {
             Pointcloud cloud = (Pointcloud) o;
-            this.data.replace(addr, new WritablePointcloud(cloud));
+            MemoryEntry e = this.data.computeIfPresent(addr, (k, old) -> {
+                this.release(old);
+                this.unindex(k);
+                this.index(k, cloud);
+                return this.resident(k, wrap(cloud));
+            });
+            this.evict(e);
         }
     }
 
     public boolean free(String addr) {
-        if (this.data.containsKey(addr)) {
-            this.data.remove(addr);
-            return true;
-        } else {
-            return false;
-        }
+        final boolean[] freed = {false};
+        this.data.computeIfPresent(addr, (k, old) -> {
+            this.release(old);
+            this.unindex(k);
+            this.patches.remove(k);
+            this.freed.add(k);
+            freed[0] = true;
+            return null;
+        });
+        return freed[0];
     }
 
     public Object access(String addr) {
-        WritableResource obj = this.data.get(addr);
+        MemoryEntry obj = this.data.get(addr);
         //if the object get is null
         if (obj == null) {
             //perhaps it is a patch
             //extract the patch name from the addr.
             String name = addr.substring(addr.lastIndexOf('#') + 1, addr.length());
-            //get all point cloud
-            List<String> clouds = Knowdip.get().listPointClouds();
-            //Test for each cloud if it contains the name as a patch
-            for (String c : clouds) {
-                WritableResource get = this.data.get(c);
+            String parent = this.parentOf(addr);
+            if (parent != null) {
+                MemoryEntry get = this.data.get(parent);
                 if (get != null) {
-                    //test if the data is a pointcloud
-                    Object d = get.getData();
-                    if (!d.getClass().equals(Pointcloud.class)) {
-                        throw new InternalError("The method  Knowdip.get().listPointClouds() returns an element that isn't a point cloud.");
-                    }
-                    Pointcloud pc = (Pointcloud) d;
-                    APointCloud patch = pc.get(name);
+                    APointCloud patch = ((Pointcloud) this.load(get).getData()).get(name);
                     if (patch != null) {
                         return patch;
                     }
                 }
             }
-            return null;
+            //the patch may have been created after the indexing of its cloud
+            APointCloud patch = this.findPatch(name);
+            if (patch == null) {
+                this.patchMisses.incrementAndGet();
+            } else {
+                this.patchHits.incrementAndGet();
+            }
+            return patch;
         } else {
-            return obj.getData();
+            Object d = this.load(obj).getData();
+            if (d instanceof PatchView) {
+                //views are accessed as the patches of the clouds
+                return this.points(addr, obj, (PatchView) d);
+            }
+            return d;
+        }
+    }
+
+    /**
+     * Frees the resources that are no longer referenced. A point cloud is
+     * reachable if its URI is live or if the URI of one of its patches or
+     * patch views is live. Resources allocated during the collection are never freed.
+     *
+     * @param liveness function giving the live URIs among the URIs of the
+     * memory, for example the URIs still described in the working model
+     * @return the number of resources freed
+     */
+    public int gc(Function<Collection<String>, Set<String>> liveness) {
+        //patches added to resident clouds since their indexing
+        this.data.values().forEach(e -> {
+            WritableResource<?> r = e.getResource();
+            if (r != null && r.getData() instanceof Pointcloud) {
+                this.index(e.getUri(), (Pointcloud) r.getData());
+            }
+        });
+        Map<String, String> index = this.patchIndex();
+        Set<String> candidates = new HashSet<>(this.data.keySet());
+        candidates.addAll(index.keySet());
+        Set<String> live = liveness.apply(Collections.unmodifiableSet(candidates));
+        Set<String> reachable = new HashSet<>();
+        index.forEach((patch, cloud) -> {
+            if (live.contains(patch)) {
+                reachable.add(cloud);
+            }
+        });
+        int count = 0;
+        for (String uri : candidates) {
+            if (this.data.containsKey(uri) && !live.contains(uri) && !reachable.contains(uri) && this.free(uri)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Searches a patch in the resident point clouds of the memory and indexes
+     * the cloud containing it. The patches of the spilled clouds are indexed
+     * when they are spilled or read, so they are never searched.
+     *
+     * @param name name of the patch
+     * @return the patch or {@code null} if it is not found
+     */
+    private APointCloud findPatch(String name) {
+        for (MemoryEntry e : this.data.values()) {
+            WritableResource<?> r = e.getResource();
+            //test if the data is a pointcloud
+            if (r != null && r.getData().getClass().equals(Pointcloud.class)) {
+                Pointcloud pc = (Pointcloud) r.getData();
+                APointCloud patch = pc.get(name);
+                if (patch != null) {
+                    //the patch has been added since the cloud was indexed
+                    this.index(e.getUri(), pc);
+                    return patch;
+                }
+            }
         }
+        return null;
+    }
+
+    /**
+     * Creates a resident entry and accounts for its size.
+     *
+     * @param uri URI of the resource
+     * @param resource resource to be stored
+     * @return the new entry
+     */
+    private MemoryEntry resident(String uri, WritableResource<?> resource) {
+        MemoryEntry e = new MemoryEntry(uri, resource, SITE.get(), this.versions.incrementAndGet());
+        this.touch(e);
+        this.residentBytes.addAndGet(e.getBytes());
+        return e;
+    }
+
+    /**
+     * Stops accounting for an entry removed from the memory. A pinned entry is
+     * accounted until its last reader unpins it.
+     *
+     * @param e removed entry
+     */
+    private void release(MemoryEntry e) {
+        synchronized (e) {
+            if (!e.retire() && e.isResident()) {
+                this.residentBytes.addAndGet(-e.getBytes());
+            }
+        }
+        this.recency.remove(e.getLastAccess(), e);
+        this.forget(e);
+    }
+
+    /**
+     * Records an access to an entry.
+     *
+     * @param e entry accessed
+     */
+    private void touch(MemoryEntry e) {
+        synchronized (e) {
+            long previous = e.getLastAccess();
+            long tick = this.clock.incrementAndGet();
+            e.touch(tick);
+            this.recency.remove(previous, e);
+            this.recency.put(tick, e);
+        }
+    }
+
+    /**
+     * Gets the points of a view accessed as a patch. The points are
+     * materialized once per version of the view and of its parent.
+     *
+     * @param uri URI of the view
+     * @param e entry of the view
+     * @param view view loaded from the entry
+     * @return the points of the view
+     */
+    private APointCloud points(String uri, MemoryEntry e, PatchView view) {
+        MemoryEntry parent = this.data.get(view.getParent());
+        Materialized m = this.materialized.get(uri);
+        if (m != null && m.view == e && m.parent == parent) {
+            return m.points;
+        }
+        APointCloud points = this.materialize(Collections.singleton(view)).getPoints();
+        this.materialized.put(uri, new Materialized(e, parent, points));
+        return points;
+    }
+
+    /**
+     * Drops the materialized views depending on an entry so that they do not
+     * keep its points in the heap.
+     *
+     * @param e entry replaced, freed or spilled
+     */
+    private void forget(MemoryEntry e) {
+        if (!this.materialized.isEmpty()) {
+            this.materialized.values().removeIf(m -> m.view == e || m.parent == e);
+        }
+    }
+
+    /**
+     * Pins the current version of a resource or of a patch. Until the pin is
+     * closed, the resource is not spilled and the object returned by the pin
+     * stays the one of this version even if the resource is replaced.
+     *
+     * @param uri URI of the resource or of a patch
+     * @return the pinned resource or {@code null} if the URI is unknown
+     */
+    public PinnedResource pin(String uri) {
+        while (true) {
+            MemoryEntry e = this.data.get(uri);
+            String name = null;
+            if (e == null) {
+                String parent = this.parentOf(uri);
+                if (parent == null && this.access(uri) != null) {
+                    //unindexed patch, its cloud has been indexed by the access
+                    parent = this.parentOf(uri);
+                }
+                e = parent == null ? null : this.data.get(parent);
+                if (e == null) {
+                    return null;
+                }
+                name = uri.substring(uri.lastIndexOf('#') + 1);
+            }
+            if (e.pin()) {
+                Object d;
+                try {
+                    d = this.load(e).getData();
+                    if (name != null) {
+                        d = ((Pointcloud) d).get(name);
+                    } else if (d instanceof PatchView) {
+                        d = this.points(uri, e, (PatchView) d);
+                    }
+                } catch (RuntimeException | InternalError ex) {
+                    this.unpin(e);
+                    throw ex;
+                }
+                return new PinnedResource(this, e, uri, d);
+            }
+            //replaced meanwhile, the new version is pinned
+        }
+    }
+
+    /**
+     * Releases a reader of an entry and retires the entry if it has been
+     * replaced.
+     *
+     * @param e entry pinned
+     */
+    void unpin(MemoryEntry e) {
+        synchronized (e) {
+            if (e.unpin()) {
+                if (e.isResident()) {
+                    this.residentBytes.addAndGet(-e.getBytes());
+                }
+                e.drop();
+            }
+        }
+    }
+
+    /**
+     * Gets the version of a resource, changed each time it is replaced. A
+     * version is never given twice by a memory, even to another URI.
+     *
+     * @param uri URI of the resource
+     * @return the version or 0 if the URI is not allocated
+     */
+    public long getVersion(String uri) {
+        MemoryEntry e = this.data.get(uri);
+        return e == null ? 0 : e.getVersion();
+    }
+
+    /**
+     * Gets a stamp of the stored content of a resource, made of the size and
+     * of the modification time of the file or of the snapshot holding it.
+     * Unlike the versions, the stamps can be compared across sessions.
+     *
+     * @param uri URI of the resource
+     * @return the stamp or {@code null} if the URI is not allocated or if its
+     * resource has never been stored
+     */
+    public String getStamp(String uri) {
+        MemoryEntry e = this.data.get(uri);
+        if (e == null) {
+            return null;
+        }
+        String path;
+        synchronized (e) {
+            path = e.getFile() != null ? e.getFile()
+                    : e.getSnapshot() != null ? e.getSnapshot().getPath() : null;
+        }
+        if (path == null) {
+            return null;
+        }
+        try {
+            BasicFileAttributes a = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            return a.size() + ":" + a.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces a point cloud by a modified copy. The writer modifies a copy of
+     * the current version which is then published atomically, readers of the
+     * current version are never affected. If another version is published
+     * meanwhile, the writer is applied again on the new version.
+     *
+     * @param uri URI of the point cloud
+     * @param writer modification applied on the copy
+     * @return the version published
+     */
+    public long update(String uri, Consumer<Pointcloud> writer) {
+        while (true) {
+            try (PinnedResource current = this.pin(uri)) {
+                if (current == null || !(current.get() instanceof Pointcloud) || !this.data.containsKey(uri)) {
+                    throw new InternalError(uri + " is not a point cloud of the memory");
+                }
+                final long version = current.getVersion();
+                Pointcloud copy = ColumnarPointcloud.of((Pointcloud) current.get()).toPointcloud();
+                writer.accept(copy);
+                //the entry is published only if the version read is still the current one
+                final MemoryEntry[] published = new MemoryEntry[1];
+                this.data.computeIfPresent(uri, (k, old) -> {
+                    if (old.getVersion() != version) {
+                        return old;
+                    }
+                    this.release(old);
+                    this.unindex(k);
+                    this.index(k, copy);
+                    published[0] = this.resident(k, wrap(copy));
+                    return published[0];
+                });
+                if (published[0] != null) {
+                    this.evict(published[0]);
+                    return published[0].getVersion();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the resource of an entry, reloading it from its file if it has
+     * been spilled.
+     *
+     * @param e entry to be accessed
+     * @return the resource of the entry
+     */
+    private WritableResource<?> load(MemoryEntry e) {
+        this.touch(e);
+        WritableResource<?> r = e.getResource();
+        if (r == null) {
+            synchronized (e) {
+                r = e.getResource();
+                if (r == null) {
+                    MemorySnapshot s = e.getSnapshot();
+                    if (s != null) {
+                        try {
+                            r = s.load(e.getUri());
+                        } catch (IOException ex) {
+                            throw new InternalError("The resource " + e.getUri() + " cannot be loaded from " + s.getPath(), ex);
+                        }
+                    } else {
+                        String file = e.getFile();
+                        r = this.reader(file);
+                        if (r == null) {
+                            throw new InternalError("The file " + file + " cannot be load in the memory");
+                        }
+                        try {
+                            r.read(file);
+                        } catch (IOException ex) {
+                            throw new InternalError("The resource " + e.getUri() + " cannot be reloaded from " + file, ex);
+                        }
+                    }
+                    e.loaded(r);
+                    this.residentBytes.addAndGet(e.getBytes());
+                    this.reloads.incrementAndGet();
+                }
+            }
+            this.evict(e);
+        }
+        return r;
+    }
+
+    /**
+     * Spills the least recently accessed resources until the resident
+     * resources fit in the budget. The victims are chosen under the eviction
+     * lock, then written without holding it.
+     *
+     * @param keep entry that must stay in the heap, can be {@code null}
+     */
+    private void evict(MemoryEntry keep) {
+        if (this.budget <= 0) {
+            return;
+        }
+        List<MemoryEntry> victims = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        synchronized (this.evictionLock) {
+            Iterator<Map.Entry<Long, MemoryEntry>> it = this.recency.entrySet().iterator();
+            while (this.residentBytes.get() - this.spilling.get() > this.budget && it.hasNext()) {
+                Map.Entry<Long, MemoryEntry> c = it.next();
+                MemoryEntry e = c.getValue();
+                if (e.getLastAccess() != c.getKey() || !e.isResident()) {
+                    //accessed again or spilled since
+                    it.remove();
+                } else if (e != keep && !e.isPinned()) {
+                    it.remove();
+                    long bytes = e.getBytes();
+                    this.spilling.addAndGet(bytes);
+                    victims.add(e);
+                    sizes.add(bytes);
+                }
+            }
+        }
+        for (int i = 0; i < victims.size(); i++) {
+            try {
+                this.spill(victims.get(i));
+            } finally {
+                this.spilling.addAndGet(-sizes.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the resource of an entry in the memory directory and drops it
+     * from the heap. The resource is written in a temporary file which is
+     * published under the lock of the entry, unless the entry has been
+     * pinned, reloaded or removed meanwhile.
+     *
+     * @param e entry to be spilled
+     */
+    private void spill(MemoryEntry e) {
+        WritableResource<?> r = e.getResource();
+        if (r == null) {
+            return;
+        }
+        if (r.getData() instanceof Pointcloud) {
+            //the patches added in place stay accessible once spilled
+            this.index(e.getUri(), (Pointcloud) r.getData());
+        }
+        String file = path(this.directory, e.getUri(), r.getExt());
+        Path tmp = Paths.get(file + "." + e.getVersion() + ".tmp");
+        try {
+            new File(this.directory).mkdirs();
+            r.write(tmp.toString());
+            synchronized (e) {
+                if (e.getResource() == r && !e.isPinned() && !e.isRetired()) {
+                    Files.move(tmp, Paths.get(file), StandardCopyOption.REPLACE_EXISTING);
+                    e.spilled(file);
+                    this.residentBytes.addAndGet(-e.getBytes());
+                    this.forget(e);
+                    this.evictions.incrementAndGet();
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Memory.class.getName()).log(Level.SEVERE, "Cannot spill " + e.getUri(), ex);
+        }
+        //kept resident rather than lost, the copy is dropped
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException ex) {
+            Logger.getLogger(Memory.class.getName()).log(Level.WARNING, null, ex);
+        }
+        if (e.isResident() && !e.isRetired()) {
+            this.touch(e);
+        }
+    }
+
+    /**
+     * Builds the path of the file storing a resource.
+     *
+     * @param directory directory of the file
+     * @param uri URI of the resource
+     * @param ext extension of the file
+     * @return the path of the file
+     */
+    private static String path(String directory, String uri, String ext) {
+        if (!directory.endsWith("/") && !directory.endsWith("\\")) {
+            directory += "/";
+        }
+        return directory + uri.substring(uri.lastIndexOf('#') + 1, uri.length()) + "." + ext;
+    }
+
+    /**
+     * Indexes the patches of a point cloud so they can be accessed directly
+     * by their URI.
+     *
+     * @param uri URI of the point cloud
+     * @param cloud point cloud containing the patches
+     */
+    private void index(String uri, Pointcloud cloud) {
+        this.views.remove(uri);
+        Map<String, APointCloud> p = cloud.getPatches();
+        if (p != null) {
+            final String cloudUri = UriTable.intern(uri);
+            p.keySet().forEach(k -> this.patches.put(UriTable.qualify(k), cloudUri));
+        }
+    }
+
+    /**
+     * Removes the patches of a point cloud from the index, as well as the
+     * link of the entry to its parent if it was a view. The views of the cloud
+     * are entries of the memory and keep their link: they still read the
+     * points of the cloud.
+     *
+     * @param uri URI of the point cloud
+     */
+    private void unindex(String uri) {
+        this.views.remove(uri);
+        this.patches.remove(uri);
+        //the views are entries of the memory
+        this.patches.entrySet().removeIf(p -> p.getValue().equals(uri) && !this.data.containsKey(p.getKey()));
+    }
+
+    /**
+     * Gets the parent of a patch or of a patch view.
+     *
+     * @param patch URI of the patch
+     * @return the URI of its point cloud or {@code null} if the patch is not
+     * indexed
+     */
+    private String parentOf(String patch) {
+        return this.patches.get(patch);
+    }
+
+    /**
+     * Indexes a patch or a patch view.
+     *
+     * @param patch URI of the patch
+     * @param cloud URI of its point cloud
+     */
+    private void link(String patch, String cloud) {
+        this.patches.put(UriTable.intern(patch), UriTable.intern(cloud));
+    }
+
+    /**
+     * Gets the patch index with URIs.
+     *
+     * @return the URI of the cloud of each indexed patch, sorted by patch URI
+     */
+    private Map<String, String> patchIndex() {
+        return new TreeMap<>(this.patches);
     }
 
     /**
@@ -128,25 +1105,366 @@ public class Memory {
      * @throws IOException if something wrong.
      */
     public void write(String path) throws IOException {
+        this.write(path, null);
+    }
+
+    /**
+     * Writes all point cloud in a directory in parallel. Writing in the memory
+     * directory only writes the resources modified since the last checkpoint.
+     * A path with the {@code .kds} extension writes a single snapshot file
+     * instead of a directory.
+     *
+     * @param path path of the directory or of the snapshot
+     * @param listener receives the progress, can be {@code null}
+     * @throws IOException if something wrong.
+     */
+    public void write(String path, ProgressListener listener) throws IOException {
+        if (MemorySnapshot.isSnapshot(path)) {
+            this.writeSnapshot(path, listener);
+            return;
+        }
+        if (this.isDirectory(path)) {
+            //the directory already contains the unchanged resources
+            this.checkpoint(listener);
+            return;
+        }
         if (!path.endsWith("/") || !path.endsWith("\\")) {
             path += "/";
             final String filename = path;
             new File(filename).mkdirs();
             //save each element
-            this.data.forEach((var k, var v) -> {
+            this.parallel(this.data.values(), v -> {
                 try {
-                    var n = k.substring(k.lastIndexOf('#') + 1, k.length());
-                    String name = filename + n + "." + v.getExt();
-                    v.write(name);
+                    synchronized (v) {
+                        this.store(v, filename);
+                    }
+                    return true;
                 } catch (IOException ex) {
                     Logger.getLogger(Memory.class.getName()).log(Level.SEVERE, null, ex);
+                    return false;
                 }
+            }, listener);
+            this.writePatchIndex(filename);
+        }
+    }
+
+    /**
+     * Persists in the memory directory only the resources allocated or
+     * replaced since the last checkpoint and deletes the files of the freed
+     * ones. It can be called periodically while the memory is used.
+     *
+     * @return the number of resources written
+     */
+    public int checkpoint() {
+        return this.checkpoint(null);
+    }
+
+    /**
+     * Persists in parallel the resources modified since the last checkpoint.
+     *
+     * @param listener receives the progress, can be {@code null}
+     * @return the number of resources written
+     * @see #checkpoint()
+     */
+    public int checkpoint(ProgressListener listener) {
+        if (this.directory == null) {
+            throw new IllegalStateException("A memory without directory cannot be checkpointed");
+        }
+        new File(this.directory).mkdirs();
+        for (String uri : this.freed) {
+            if (this.freed.remove(uri) && !this.data.containsKey(uri)) {
+                this.delete(uri, null);
+            }
+        }
+        List<MemoryEntry> dirty = new ArrayList<>();
+        this.data.values().forEach(e -> {
+            if (e.isDirty()) {
+                dirty.add(e);
+            }
+        });
+        int written = this.parallel(dirty, e -> {
+            synchronized (e) {
+                if (!e.isDirty()) {
+                    return false;
+                }
+                try {
+                    String file = this.store(e, this.directory);
+                    e.written(file);
+                    this.delete(e.getUri(), file.substring(file.lastIndexOf('.') + 1));
+                    return true;
+                } catch (IOException ex) {
+                    Logger.getLogger(Memory.class.getName()).log(Level.SEVERE, "Cannot checkpoint " + e.getUri(), ex);
+                    return false;
+                }
+            }
+        }, listener);
+        this.writePatchIndex(this.directory);
+        return written;
+    }
+
+    /**
+     * Writes the resource of an entry in a directory. The caller must hold the
+     * lock of the entry.
+     *
+     * @param e entry to be written
+     * @param dir path of the directory
+     * @return the path of the written file
+     * @throws IOException if the resource cannot be written
+     */
+    private String store(MemoryEntry e, String dir) throws IOException {
+        WritableResource<?> r = e.getResource();
+        String file;
+        if (r != null) {
+            file = path(dir, e.getUri(), r.getExt());
+            r.write(file);
+        } else if (e.getSnapshot() != null) {
+            //blocks of a snapshot are complete files
+            MemorySnapshot s = e.getSnapshot();
+            file = path(dir, e.getUri(), s.getExt(e.getUri()));
+            s.extract(e.getUri(), file);
+        } else {
+            //spilled resources are copied from their file
+            String from = e.getFile();
+            file = path(dir, e.getUri(), from.substring(from.lastIndexOf('.') + 1));
+            copy(from, file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes every resource in a single snapshot file. Resources already
+     * encoded in a file or in a snapshot are copied without being decoded.
+     *
+     * @param path path of the snapshot
+     * @param listener receives the progress, can be {@code null}
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeSnapshot(String path, ProgressListener listener) throws IOException {
+        List<MemoryEntry> entries = new ArrayList<>(this.data.values());
+        int done = 0;
+        try (MemorySnapshot.Writer w = MemorySnapshot.writer(path)) {
+            for (MemoryEntry e : entries) {
+                synchronized (e) {
+                    WritableResource<?> r = e.getResource();
+                    if (r != null) {
+                        w.add(e.getUri(), r);
+                    } else if (e.getSnapshot() != null) {
+                        w.add(e.getUri(), e.getSnapshot());
+                    } else if (!w.add(e.getUri(), e.getFile())) {
+                        //text files are converted
+                        r = this.reader(e.getFile());
+                        r.read(e.getFile());
+                        w.add(e.getUri(), r);
+                    }
+                }
+                done++;
+                if (listener != null) {
+                    listener.progress(done, entries.size());
+                }
+            }
+            w.setPatches(this.patchIndex());
+            w.commit();
+        }
+        //resources read from the replaced snapshot are now read from the new one
+        MemorySnapshot old = this.snapshot;
+        if (old != null && Paths.get(old.getPath()).toAbsolutePath().equals(Paths.get(path).toAbsolutePath())) {
+            MemorySnapshot s = MemorySnapshot.open(path);
+            for (MemoryEntry e : this.data.values()) {
+                synchronized (e) {
+                    if (e.getSnapshot() == old) {
+                        e.rebind(s);
+                    }
+                }
+            }
+            this.snapshot = s;
+            old.close();
+        }
+    }
+
+    /**
+     * Reads the index of a snapshot, its resources are loaded on their first
+     * access.
+     *
+     * @param path path of the snapshot
+     * @throws IOException if the file is not a snapshot
+     */
+    private void readSnapshot(String path) throws IOException {
+        MemorySnapshot s = MemorySnapshot.open(path);
+        for (String u : s.getUris()) {
+            String uri = UriTable.intern(u);
+            MemoryEntry e = new MemoryEntry(uri, s, this.versions.incrementAndGet());
+            //not yet in the memory directory
+            e.markDirty();
+            this.data.put(uri, e);
+        }
+        s.getPatches().forEach((patch, cloud) -> {
+            if (this.data.containsKey(cloud)) {
+                this.link(patch, cloud);
+            }
+        });
+        this.snapshot = s;
+    }
+
+    /**
+     * Sets the number of workers used to write and load resources.
+     *
+     * @param threads number of workers, at least 1
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.threads = threads;
+        if (this.workers != null) {
+            this.workers.shutdown();
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Stops the workers of the memory and closes the snapshot from which it
+     * has been read. The resources still stored only in the snapshot cannot
+     * be loaded anymore, so the memory should be written before.
+     *
+     * @throws IOException if the snapshot cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.workers != null) {
+            this.workers.shutdown();
+            this.workers = null;
+        }
+        if (this.snapshot != null) {
+            this.snapshot.close();
+            this.snapshot = null;
+        }
+    }
+
+    private synchronized ExecutorService workers() {
+        if (this.workers == null) {
+            this.workers = Executors.newFixedThreadPool(this.threads, r -> {
+                Thread t = new Thread(r, "knowdip-memory-io");
+                t.setDaemon(true);
+                return t;
             });
         }
+        return this.workers;
+    }
+
+    /**
+     * Processes entries on the workers of the memory and waits for the end of
+     * the processing.
+     *
+     * @param entries entries to be processed
+     * @param task processing of an entry, returning true if it did something
+     * @param listener receives the progress, can be {@code null}
+     * @return the number of entries for which the task returned true
+     */
+    private int parallel(Collection<MemoryEntry> entries, Predicate<MemoryEntry> task, ProgressListener listener) {
+        CompletableFuture<Integer> all = this.submit(entries, task, listener);
+        return all.join();
+    }
+
+    private <T> CompletableFuture<Integer> submit(Collection<T> items, Predicate<T> task, ProgressListener listener) {
+        final int total = items.size();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = this.workers();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[total];
+        int i = 0;
+        for (T e : items) {
+            futures[i++] = CompletableFuture.runAsync(() -> {
+                if (task.test(e)) {
+                    count.incrementAndGet();
+                }
+                int d = done.incrementAndGet();
+                if (listener != null) {
+                    listener.progress(d, total);
+                }
+            }, pool);
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> count.get());
+    }
+
+    /**
+     * Copies a file through NIO channels.
+     *
+     * @param from path of the source
+     * @param to path of the destination
+     * @throws IOException if the copy fails
+     */
+    private static void copy(String from, String to) throws IOException {
+        Path source = Paths.get(from).toAbsolutePath().normalize();
+        Path target = Paths.get(to).toAbsolutePath().normalize();
+        if (source.equals(target)) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * Tests if a path is the memory directory.
+     *
+     * @param path path of a directory
+     * @return true if the path is the memory directory.
+     */
+    private boolean isDirectory(String path) {
+        return this.directory != null && Paths.get(path).toAbsolutePath().normalize()
+                .equals(Paths.get(this.directory).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Deletes the files of a resource in the memory directory.
+     *
+     * @param uri URI of the resource
+     * @param keep extension of the file to be kept, {@code null} to delete
+     * every file
+     */
+    private void delete(String uri, String keep) {
+        for (String ext : EXTS) {
+            if (!ext.equals(keep)) {
+                try {
+                    Files.deleteIfExists(Paths.get(path(this.directory, uri, ext)));
+                } catch (IOException ex) {
+                    Logger.getLogger(Memory.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
     }
 
+    /**
+     * Replaces the content of the memory by the resources stored in a
+     * directory. Only the location of each resource is read: resources are
+     * loaded on their first access or by {@link #prefetch()}. It must not be
+     * called while other threads use the memory. A path with the {@code .kds}
+     * extension reads a snapshot written by {@link #write(java.lang.String)}.
+     *
+     * @param path path of the directory or of the snapshot
+     * @throws IOException if the directory cannot be read.
+     */
     public void read(String path) throws IOException {
         this.data.clear();
+        this.freed.clear();
+        this.residentBytes.set(0);
+        this.patches.clear();
+        this.views.clear();
+        this.materialized.clear();
+        if (this.snapshot != null) {
+            this.snapshot.close();
+            this.snapshot = null;
+        }
+        if (MemorySnapshot.isSnapshot(path) && Files.isRegularFile(Paths.get(path))) {
+            this.readSnapshot(path);
+            return;
+        }
         final String localPath;
         if (!path.endsWith("/") && !path.endsWith("\\")) {
             localPath = path + "/";
@@ -155,40 +1473,163 @@ public class Memory {
         }
         List<String> ls = this.ls(path);
         ls.forEach(k -> {
-            WritablePointcloud writablePointcloud = new WritablePointcloud();
-            //read point cloud
-            if (writablePointcloud.hasRightExt(k)) {
-                try {
-                    writablePointcloud.read(localPath + k);
-                    String[] split = k.split("\\.");
-                    if (split == null || split.length == 0) {
-                        throw new InternalError("the file " + k + " cannot be load in the memory");
-                    }
-                    this.data.put(Knowdip.createNode(split[0]).getURI(), writablePointcloud);
-                } catch (IOException ex) {
-                    Logger.getLogger(Memory.class.getName()).log(Level.SEVERE, null, ex);
+            //keep only the files having the extension of a known format
+            if (this.reader(k) != null) {
+                String[] split = Paths.get(k).getFileName().toString().split("\\.");
+                if (split == null || split.length == 0) {
+                    throw new InternalError("the file " + k + " cannot be load in the memory");
                 }
+                String uri = UriTable.qualify(split[0]);
+                MemoryEntry e = new MemoryEntry(uri, localPath + k, this.versions.incrementAndGet());
+                if (!this.isDirectory(path)) {
+                    //not yet in the memory directory
+                    e.markDirty();
+                }
+                this.data.put(uri, e);
             }
         });
+        if (!this.readPatchIndex(localPath)) {
+            //the patch tables of the binary files are read without the points
+            for (MemoryEntry e : this.data.values()) {
+                if (e.getFile() != null && e.getFile().endsWith("." + WritableBinaryPointcloud.EXT)) {
+                    try {
+                        for (String name : WritableBinaryPointcloud.patchNames(e.getFile())) {
+                            this.link(UriTable.qualify(name), e.getUri());
+                        }
+                    } catch (IOException ex) {
+                        Logger.getLogger(Memory.class.getName()).log(Level.WARNING, "Cannot read the patches of " + e.getFile(), ex);
+                    }
+                }
+            }
+        }
     }
 
-    public boolean contains(String uri) {
-        return this.data.containsKey(uri);
+    /**
+     * Loads in background the resources of the memory that are not yet in the
+     * heap, until the budget is reached.
+     *
+     * @return the future completed when every resource is loaded
+     */
+    public Future<?> prefetch() {
+        return this.prefetch(new ArrayList<>(this.data.keySet()), null);
+    }
+
+    /**
+     * Loads in background the resources corresponding to the given URIs. The
+     * URI of an indexed patch loads its cloud, patches not yet indexed are
+     * ignored. The loading stops when the budget is reached.
+     *
+     * @param uris URIs of the resources to be loaded
+     * @return the future completed when the resources are loaded
+     */
+    public Future<?> prefetch(Collection<String> uris) {
+        return this.prefetch(uris, null);
     }
 
-    private List<String> ls(final String directory) throws FileNotFoundException, IOException {
+    /**
+     * Loads in parallel and in background the resources corresponding to the
+     * given URIs.
+     *
+     * @param uris URIs of the resources to be loaded
+     * @param listener receives the progress, can be {@code null}
+     * @return the future completed when the resources are loaded, with the
+     * number of resources loaded
+     * @see #prefetch(java.util.Collection)
+     */
+    public CompletableFuture<Integer> prefetch(Collection<String> uris, ProgressListener listener) {
+        //each URI is resolved on the workers, the caller never waits for a lookup
+        return this.submit(new LinkedHashSet<>(uris), this::warm, listener);
+    }
 
-        final List<String> result = new ArrayList<>();
-        final String[] listFile = new File(directory).list();
-        for (final String listFile1 : listFile) {
-            final File file = new File(directory + "/" + listFile1);
-            if (file.isDirectory()) {
-                result.addAll(ls(file.getPath()));
-            } else {
-                result.add(file.getName());
+    /**
+     * Loads the resource of a URI if it is not in the heap and if the budget
+     * is not reached. The URI of an indexed patch loads its cloud, other
+     * URIs are ignored.
+     *
+     * @param uri URI of a resource or of a patch
+     * @return true if a resource has been loaded
+     */
+    private boolean warm(String uri) {
+        if (this.budget > 0 && this.residentBytes.get() >= this.budget) {
+            return false;
+        }
+        try {
+            MemoryEntry e = this.data.get(uri);
+            if (e == null) {
+                //an unindexed patch is left to its access: searching it would
+                //load every spilled cloud regardless of the budget
+                String parent = this.parentOf(uri);
+                e = parent == null ? null : this.data.get(parent);
+            }
+            if (e == null || e.isResident()) {
+                return false;
             }
+            this.load(e);
+            return true;
+        } catch (RuntimeException | InternalError ex) {
+            Logger.getLogger(Memory.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the patch index in a directory.
+     *
+     * @param dir path of the directory
+     */
+    private void writePatchIndex(String dir) {
+        List<String> lines = new ArrayList<>();
+        this.patchIndex().forEach((patch, cloud) -> lines.add(patch + "\t" + cloud));
+        try {
+            Files.write(Paths.get(dir, PATCH_INDEX), lines, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            Logger.getLogger(Memory.class.getName()).log(Level.WARNING, "Cannot write the patch index", ex);
+        }
+    }
+
+    /**
+     * Reads the patch index of a directory, if it exists. Patches of clouds
+     * that are not in the memory are ignored.
+     *
+     * @param dir path of the directory
+     * @return false if the directory has no patch index
+     */
+    private boolean readPatchIndex(String dir) {
+        Path file = Paths.get(dir, PATCH_INDEX);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab > 0 && this.data.containsKey(line.substring(tab + 1))) {
+                    this.link(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Memory.class.getName()).log(Level.WARNING, "Cannot read the patch index", ex);
+        }
+        return true;
+    }
+
+    public boolean contains(String uri) {
+        return this.data.containsKey(uri);
+    }
+
+    /**
+     * Lists the files of a directory and of its sub-directories.
+     *
+     * @param directory path of the directory
+     * @return path of the files relative to the directory
+     * @throws IOException if the directory cannot be read.
+     */
+    private List<String> ls(final String directory) throws IOException {
+        final Path root = Paths.get(directory);
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(f -> root.relativize(f).toString())
+                    .collect(Collectors.toList());
         }
-        return result;
     }
 
     /**
@@ -200,4 +1641,21 @@ public class Memory {
         return this.data.isEmpty();
     }
 
+
+    /**
+     * Points of a view materialized from given entries of the view and of its
+     * parent.
+     */
+    private static final class Materialized {
+
+        private final MemoryEntry view;
+        private final MemoryEntry parent;
+        private final APointCloud points;
+
+        Materialized(MemoryEntry view, MemoryEntry parent, APointCloud points) {
+            this.view = view;
+            this.parent = parent;
+            this.points = points;
+        }
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+/**
+ * Slot of the memory holding a resource either on the heap or in a file.
+ * <p>
+ * A resident entry has its resource loaded. A spilled entry only knows the
+ * file or the snapshot from which its resource can be reloaded.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+final class MemoryEntry {
+
+    private final String uri;
+    private WritableResource<?> resource;
+    /**
+     * File containing a copy of the resource, {@code null} if it has never
+     * been written.
+     */
+    private String file;
+    /**
+     * Snapshot containing the resource, {@code null} if it has not been read
+     * from a snapshot.
+     */
+    private MemorySnapshot snapshot;
+    /**
+     * Estimated number of bytes used by the resource on the heap.
+     */
+    private long bytes;
+    /**
+     * Number of points of the resource, 0 if it has never been loaded.
+     */
+    private long points;
+    /**
+     * Step of the pipeline which allocated the resource, {@code null} if it
+     * is unknown.
+     */
+    private final String site;
+    /**
+     * True if the resource has changed since it was last written in the
+     * memory directory.
+     */
+    private boolean dirty;
+    private volatile long lastAccess;
+    /**
+     * Version of the resource of the URI, given by the memory each time the
+     * resource is replaced.
+     */
+    private final long version;
+    /**
+     * Number of readers using the resource, a pinned entry is never spilled.
+     */
+    private int pins;
+    /**
+     * True if the entry has been replaced or freed while it was pinned, its
+     * resource is dropped when the last reader unpins it.
+     */
+    private boolean retired;
+
+    /**
+     * Creates a resident entry.
+     *
+     * @param uri URI of the resource
+     * @param resource resource loaded in the heap
+     * @param site step of the pipeline allocating the resource
+     * @param version version of the resource
+     */
+    MemoryEntry(String uri, WritableResource<?> resource, String site, long version) {
+        this.uri = uri;
+        this.version = version;
+        this.resource = resource;
+        this.bytes = resource.sizeInBytes();
+        this.points = resource.getPointCount();
+        this.site = site;
+        this.dirty = true;
+    }
+
+    /**
+     * Creates an entry whose resource is only stored in a file and will be
+     * loaded on its first access.
+     *
+     * @param uri URI of the resource
+     * @param file path of the file containing the resource
+     * @param version version of the resource
+     */
+    MemoryEntry(String uri, String file, long version) {
+        this.uri = uri;
+        this.version = version;
+        this.file = file;
+        this.site = null;
+        this.dirty = false;
+    }
+
+    /**
+     * Creates an entry whose resource is only stored in a snapshot and will
+     * be loaded on its first access.
+     *
+     * @param uri URI of the resource
+     * @param snapshot snapshot containing the resource
+     * @param version version of the resource
+     */
+    MemoryEntry(String uri, MemorySnapshot snapshot, long version) {
+        this.uri = uri;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.site = null;
+        this.dirty = false;
+    }
+
+    String getUri() {
+        return uri;
+    }
+
+    synchronized WritableResource<?> getResource() {
+        return resource;
+    }
+
+    synchronized boolean isResident() {
+        return resource != null;
+    }
+
+    synchronized String getFile() {
+        return file;
+    }
+
+    synchronized MemorySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Changes the snapshot containing the resource, after it has been
+     * rewritten.
+     *
+     * @param snapshot new snapshot
+     */
+    synchronized void rebind(MemorySnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getPoints() {
+        return points;
+    }
+
+    String getSite() {
+        return site;
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    synchronized void markDirty() {
+        this.dirty = true;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Registers a reader of the resource.
+     *
+     * @return false if the entry has been retired and cannot be pinned
+     */
+    synchronized boolean pin() {
+        if (this.retired) {
+            return false;
+        }
+        this.pins++;
+        return true;
+    }
+
+    /**
+     * Unregisters a reader of the resource.
+     *
+     * @return true if the entry was retired and is not pinned anymore
+     */
+    synchronized boolean unpin() {
+        this.pins--;
+        return this.pins == 0 && this.retired;
+    }
+
+    synchronized boolean isPinned() {
+        return pins > 0;
+    }
+
+    /**
+     * Marks the entry as removed from the memory.
+     *
+     * @return true if the entry is pinned and its resource must be kept until
+     * it is unpinned
+     */
+    synchronized boolean retire() {
+        this.retired = true;
+        return this.pins > 0;
+    }
+
+    synchronized boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Drops the resource of a retired entry.
+     */
+    synchronized void drop() {
+        this.resource = null;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch(long tick) {
+        this.lastAccess = tick;
+    }
+
+    /**
+     * Marks the resource as loaded from its file or its snapshot. The
+     * resource is still dirty if its source is not in the memory directory.
+     *
+     * @param resource resource read from the file
+     */
+    synchronized void loaded(WritableResource<?> resource) {
+        this.resource = resource;
+        this.bytes = resource.sizeInBytes();
+        this.points = resource.getPointCount();
+    }
+
+    /**
+     * Marks the resource as written in the memory directory.
+     *
+     * @param file path of the file
+     */
+    synchronized void written(String file) {
+        this.file = file;
+        this.snapshot = null;
+        this.dirty = false;
+    }
+
+    /**
+     * Drops the resource from the heap, it must have been written in a file
+     * before.
+     *
+     * @param file path of the file containing the resource
+     */
+    synchronized void spilled(String file) {
+        this.resource = null;
+        this.file = file;
+        this.snapshot = null;
+        this.dirty = false;
+    }
+
+}
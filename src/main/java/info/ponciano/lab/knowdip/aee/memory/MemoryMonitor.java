@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JMX view of the accounting of a {@link Memory}. Every attribute is read
+ * from a fresh snapshot.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class MemoryMonitor implements MemoryMonitorMBean {
+
+    private final Memory memory;
+
+    public MemoryMonitor(Memory memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * Registers the monitor of a memory in the platform MBean server. A
+     * monitor previously registered with the same name is replaced.
+     *
+     * @param memory memory to be monitored
+     * @param name name of the memory, for example its directory
+     * @return the name of the registered MBean or {@code null} if it cannot be
+     * registered
+     */
+    public static ObjectName register(Memory memory, String name) {
+        try {
+            ObjectName on = new ObjectName("info.ponciano.lab.knowdip:type=Memory,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(on)) {
+                server.unregisterMBean(on);
+            }
+            server.registerMBean(new MemoryMonitor(memory), on);
+            return on;
+        } catch (JMException ex) {
+            Logger.getLogger(MemoryMonitor.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters a monitor from the platform MBean server, so that its memory
+     * is no longer reachable from the server.
+     *
+     * @param name name returned by {@link #register(Memory, String)}, ignored
+     * if it is {@code null}
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(MemoryMonitor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    @Override
+    public long getEntries() {
+        return memory.getStats().getEntries();
+    }
+
+    @Override
+    public long getResidentEntries() {
+        return memory.getStats().getResidentEntries();
+    }
+
+    @Override
+    public long getPoints() {
+        return memory.getStats().getPoints();
+    }
+
+    @Override
+    public long getBytes() {
+        return memory.getStats().getBytes();
+    }
+
+    @Override
+    public long getResidentBytes() {
+        return memory.getResidentBytes();
+    }
+
+    @Override
+    public long getBudget() {
+        return memory.getBudget();
+    }
+
+    @Override
+    public long getEvictions() {
+        return memory.getEvictions();
+    }
+
+    @Override
+    public long getReloads() {
+        return memory.getReloads();
+    }
+
+    @Override
+    public long getPatchHits() {
+        return memory.getPatchHits();
+    }
+
+    @Override
+    public long getPatchMisses() {
+        return memory.getPatchMisses();
+    }
+
+    @Override
+    public Map<String, Long> getBytesBySite() {
+        return memory.getStats().getBytesBySite();
+    }
+
+    @Override
+    public double getBudgetUsage() {
+        long budget = memory.getBudget();
+        return budget <= 0 ? 0 : (double) memory.getResidentBytes() / budget;
+    }
+
+}
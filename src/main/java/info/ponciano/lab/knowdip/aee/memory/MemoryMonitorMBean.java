@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.util.Map;
+
+/**
+ * Management interface of a {@link Memory}, exposed through JMX.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public interface MemoryMonitorMBean {
+
+    public long getEntries();
+
+    public long getResidentEntries();
+
+    public long getPoints();
+
+    public long getBytes();
+
+    public long getResidentBytes();
+
+    public long getBudget();
+
+    public long getEvictions();
+
+    public long getReloads();
+
+    public long getPatchHits();
+
+    public long getPatchMisses();
+
+    public Map<String, Long> getBytesBySite();
+
+    /**
+     * Gets the ratio between the resident bytes and the budget.
+     *
+     * @return the ratio, 0 if the memory has no budget
+     */
+    public double getBudgetUsage();
+}
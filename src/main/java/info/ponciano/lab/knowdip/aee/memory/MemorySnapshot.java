@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single file containing every resource of a memory.
+ * <p>
+ * Resources are appended one after the other as blocks in the binary or
+ * compressed point cloud format, in the patch view format or in the raster
+ * format, then a footer indexes the blocks and the
+ * patches. Restoring a memory opens the file once and maps the footer only,
+ * each block is decoded on the first access to its resource. A block is a
+ * complete {@code .kpc}, {@code .kpz}, {@code .kpv} or {@code .krt} content and can be copied as is in a
+ * memory directory.</p>
+ * <pre>
+ * header (16 bytes, little endian)
+ *   int  magic "KDSN"
+ *   int  version
+ *   long offset of the footer
+ * blocks
+ * footer
+ *   int number of blocks, then for each block:
+ *     string URI, string extension, long offset, long length
+ *   int number of patches, then for each patch:
+ *     string patch URI, string cloud URI
+ * </pre> Strings are stored as an int length followed by UTF-8 bytes.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+final class MemorySnapshot implements Closeable {
+
+    static final String EXT = "kds";
+    static final int MAGIC = 0x4B44534E;
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+
+    private final String path;
+    private final FileChannel channel;
+    private final Map<String, Block> blocks;
+    private final Map<String, String> patches;
+
+    /**
+     * Location of a resource in the snapshot.
+     */
+    private static final class Block {
+
+        final String ext;
+        final long offset;
+        final long length;
+
+        Block(String ext, long offset, long length) {
+            this.ext = ext;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private MemorySnapshot(String path, FileChannel channel, Map<String, Block> blocks, Map<String, String> patches) {
+        this.path = path;
+        this.channel = channel;
+        this.blocks = blocks;
+        this.patches = patches;
+    }
+
+    /**
+     * Tests if a path designates a snapshot.
+     *
+     * @param path path to be tested
+     * @return true if the path has the extension of a snapshot
+     */
+    static boolean isSnapshot(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    /**
+     * Opens a snapshot and reads its footer.
+     *
+     * @param path path of the snapshot
+     * @return the opened snapshot, to be closed when no resource is loaded
+     * from it anymore
+     * @throws IOException if the file is not a snapshot
+     */
+    static MemorySnapshot open(String path) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (ch.read(header, header.position()) < 0) {
+                    throw new IOException("Not a memory snapshot: " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a memory snapshot: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported memory snapshot version: " + version);
+            }
+            long footer = header.getLong();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, footer, ch.size() - footer);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            Map<String, Block> blocks = new LinkedHashMap<>();
+            for (int i = buf.getInt(); i > 0; i--) {
+                String uri = getString(buf);
+                String ext = getString(buf);
+                blocks.put(uri, new Block(ext, buf.getLong(), buf.getLong()));
+            }
+            Map<String, String> patches = new LinkedHashMap<>();
+            for (int i = buf.getInt(); i > 0; i--) {
+                String patch = getString(buf);
+                patches.put(patch, getString(buf));
+            }
+            return new MemorySnapshot(path, ch, blocks, patches);
+        } catch (IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the URIs of the resources of the snapshot
+     */
+    Set<String> getUris() {
+        return Collections.unmodifiableSet(blocks.keySet());
+    }
+
+    /**
+     * @return the URI of each patch associated with the URI of its cloud
+     */
+    Map<String, String> getPatches() {
+        return Collections.unmodifiableMap(patches);
+    }
+
+    /**
+     * Gets the extension of the format of a resource.
+     *
+     * @param uri URI of the resource
+     * @return the extension of its format
+     */
+    String getExt(String uri) {
+        return this.block(uri).ext;
+    }
+
+    /**
+     * Decodes a resource of the snapshot.
+     *
+     * @param uri URI of the resource
+     * @return the resource read
+     * @throws IOException if the block cannot be decoded
+     */
+    WritableResource<?> load(String uri) throws IOException {
+        Block b = this.block(uri);
+        switch (b.ext) {
+            case WritableBinaryPointcloud.EXT:
+                return new WritableBinaryPointcloud(WritableBinaryPointcloud.decode(channel, b.offset).toPointcloud());
+            case WritableCompressedPointcloud.EXT:
+                return new WritableCompressedPointcloud(WritableCompressedPointcloud.decode(channel, b.offset).toPointcloud());
+            case WritablePatchView.EXT:
+                return new WritablePatchView(WritablePatchView.decode(channel, b.offset));
+            case WritableRaster.EXT:
+                return new WritableRaster(Raster.map(channel, b.offset));
+            default:
+                throw new IOException("Unsupported format in the snapshot: " + b.ext);
+        }
+    }
+
+    /**
+     * Copies the block of a resource in a channel.
+     *
+     * @param uri URI of the resource
+     * @param out channel where the block is copied at its current position
+     * @throws IOException if the copy fails
+     */
+    void transfer(String uri, FileChannel out) throws IOException {
+        Block b = this.block(uri);
+        transfer(this.channel, b.offset, b.length, out);
+    }
+
+    /**
+     * Copies the block of a resource in a file, which is then a standalone
+     * file of the format of the resource.
+     *
+     * @param uri URI of the resource
+     * @param file path of the file to be written
+     * @throws IOException if the copy fails
+     */
+    void extract(String uri, String file) throws IOException {
+        try (FileChannel out = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.transfer(uri, out);
+        }
+    }
+
+    private Block block(String uri) {
+        Block b = this.blocks.get(uri);
+        if (b == null) {
+            throw new InternalError(uri + " is not in the snapshot " + path);
+        }
+        return b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Creates a writer of snapshot. The snapshot is written in a temporary
+     * file which replaces the destination when the writer is committed, so a
+     * snapshot being read can be rewritten. A writer closed without being
+     * committed deletes the temporary file and leaves the destination
+     * untouched.
+     *
+     * @param path path of the snapshot
+     * @return the writer
+     * @throws IOException if the file cannot be created
+     */
+    static Writer writer(String path) throws IOException {
+        return new Writer(path);
+    }
+
+    /**
+     * Appends resources to a new snapshot.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path tmp;
+        private final FileChannel out;
+        private final Map<String, Block> blocks;
+        private Map<String, String> patches;
+        private boolean committed;
+
+        private Writer(String path) throws IOException {
+            this.target = Paths.get(path).toAbsolutePath();
+            Path parent = this.target.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.tmp = Paths.get(this.target.toString() + ".tmp");
+            this.out = FileChannel.open(this.tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out.position(HEADER);
+            this.blocks = new LinkedHashMap<>();
+            this.patches = Collections.emptyMap();
+        }
+
+        /**
+         * Encodes a resource of the heap.
+         *
+         * @param uri URI of the resource
+         * @param r resource to be written
+         * @throws IOException if the resource cannot be written
+         */
+        void add(String uri, WritableResource<?> r) throws IOException {
+            long offset = out.position();
+            if (r instanceof WritableCompressedPointcloud) {
+                WritableCompressedPointcloud c = (WritableCompressedPointcloud) r;
+                WritableCompressedPointcloud.encode(ColumnarPointcloud.of(c.getData()), c.getQuantum(), out);
+                this.blocks.put(uri, new Block(WritableCompressedPointcloud.EXT, offset, out.position() - offset));
+            } else if (r instanceof WritableBinaryPointcloud || r instanceof WritablePointcloud
+                    || r instanceof WritablePlyPointcloud) {
+                WritableBinaryPointcloud.encode(ColumnarPointcloud.of((Pointcloud) r.getData()), out);
+                this.blocks.put(uri, new Block(WritableBinaryPointcloud.EXT, offset, out.position() - offset));
+            } else if (r instanceof WritablePatchView) {
+                WritablePatchView.encode(((WritablePatchView) r).getData(), out);
+                this.blocks.put(uri, new Block(WritablePatchView.EXT, offset, out.position() - offset));
+            } else if (r instanceof WritableRaster) {
+                ((WritableRaster) r).getData().encode(out);
+                this.blocks.put(uri, new Block(WritableRaster.EXT, offset, out.position() - offset));
+            } else {
+                throw new IOException("Unsupported resource in a snapshot: " + r.getClass());
+            }
+        }
+
+        /**
+         * Copies a resource stored in a binary, compressed, view or raster file
+         * without decoding it.
+         *
+         * @param uri URI of the resource
+         * @param file path of the file
+         * @return false if the format of the file cannot be copied as is
+         * @throws IOException if the copy fails
+         */
+        boolean add(String uri, String file) throws IOException {
+            String ext = file.substring(file.lastIndexOf('.') + 1);
+            if (!ext.equals(WritableBinaryPointcloud.EXT) && !ext.equals(WritableCompressedPointcloud.EXT)
+                    && !ext.equals(WritablePatchView.EXT) && !ext.equals(WritableRaster.EXT)) {
+                return false;
+            }
+            long offset = out.position();
+            try (FileChannel in = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                MemorySnapshot.transfer(in, 0, in.size(), out);
+            }
+            this.blocks.put(uri, new Block(ext, offset, out.position() - offset));
+            return true;
+        }
+
+        /**
+         * Copies the block of a resource from another snapshot.
+         *
+         * @param uri URI of the resource
+         * @param from snapshot containing the resource
+         * @throws IOException if the copy fails
+         */
+        void add(String uri, MemorySnapshot from) throws IOException {
+            long offset = out.position();
+            from.transfer(uri, out);
+            this.blocks.put(uri, new Block(from.getExt(uri), offset, out.position() - offset));
+        }
+
+        void setPatches(Map<String, String> patches) {
+            this.patches = patches;
+        }
+
+        /**
+         * Writes the index of the blocks and replaces the destination by the
+         * new snapshot. It must be called once all the resources have been
+         * added.
+         *
+         * @throws IOException if the snapshot cannot be completed, the
+         * destination is then left untouched
+         */
+        void commit() throws IOException {
+            if (this.committed) {
+                throw new IllegalStateException("Snapshot already committed: " + this.target);
+            }
+            try {
+                final long footer = out.position();
+                ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(this.blocks.size());
+                for (Map.Entry<String, Block> e : this.blocks.entrySet()) {
+                    buf = ensure(buf, 2 * Long.BYTES);
+                    buf = putString(buf, e.getKey());
+                    buf = putString(buf, e.getValue().ext);
+                    buf = ensure(buf, 2 * Long.BYTES);
+                    buf.putLong(e.getValue().offset).putLong(e.getValue().length);
+                }
+                buf = ensure(buf, Integer.BYTES);
+                buf.putInt(this.patches.size());
+                for (Map.Entry<String, String> e : this.patches.entrySet()) {
+                    buf = putString(buf, e.getKey());
+                    buf = putString(buf, e.getValue());
+                }
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(footer);
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header, header.position());
+                }
+                out.force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(this.tmp, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.committed = true;
+        }
+
+        /**
+         * Releases the writer, a snapshot which has not been committed is
+         * discarded.
+         *
+         * @throws IOException if the temporary file cannot be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if (!this.committed) {
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(this.tmp);
+                }
+            }
+        }
+    }
+
+    private static void transfer(FileChannel in, long offset, long length, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long n = in.transferTo(offset + done, length - done, out);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file while copying a resource");
+            }
+            done += n;
+        }
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buf.capacity(), buf.position() + needed)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.flip();
+        return bigger.put(buf);
+    }
+
+    private static ByteBuffer putString(ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf = ensure(buf, Integer.BYTES + bytes.length);
+        return buf.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
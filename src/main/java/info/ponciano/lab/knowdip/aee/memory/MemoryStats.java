@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the accounting of a {@link Memory}.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class MemoryStats {
+
+    /**
+     * Allocation site of the resources read from a directory or allocated
+     * outside any step of the pipeline.
+     */
+    public static final String UNKNOWN_SITE = "unknown";
+
+    private final long entries;
+    private final long residentEntries;
+    private final long points;
+    private final long bytes;
+    private final long residentBytes;
+    private final long budget;
+    private final long evictions;
+    private final long reloads;
+    private final long patchHits;
+    private final long patchMisses;
+    private final Map<String, Long> bytesBySite;
+
+    MemoryStats(long entries, long residentEntries, long points, long bytes, long residentBytes, long budget,
+            long evictions, long reloads, long patchHits, long patchMisses, Map<String, Long> bytesBySite) {
+        this.entries = entries;
+        this.residentEntries = residentEntries;
+        this.points = points;
+        this.bytes = bytes;
+        this.residentBytes = residentBytes;
+        this.budget = budget;
+        this.evictions = evictions;
+        this.reloads = reloads;
+        this.patchHits = patchHits;
+        this.patchMisses = patchMisses;
+        this.bytesBySite = Collections.unmodifiableMap(bytesBySite);
+    }
+
+    /**
+     * @return the number of resources of the memory
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the number of resources loaded in the heap
+     */
+    public long getResidentEntries() {
+        return residentEntries;
+    }
+
+    /**
+     * @return the number of points of the point clouds
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the estimated number of bytes of every resource, resident or
+     * not
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the estimated number of bytes of the resources in the heap
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return the budget of the memory, 0 if there is no limit
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of resources spilled to disk
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of resources reloaded from disk
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return the number of patches found by searching every cloud
+     */
+    public long getPatchHits() {
+        return patchHits;
+    }
+
+    /**
+     * @return the number of patches searched in every cloud without success
+     */
+    public long getPatchMisses() {
+        return patchMisses;
+    }
+
+    /**
+     * @return the estimated number of bytes of the resources allocated by
+     * each step of the pipeline
+     */
+    public Map<String, Long> getBytesBySite() {
+        return bytesBySite;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryStats{" + "entries=" + entries + ", residentEntries=" + residentEntries
+                + ", points=" + points + ", bytes=" + bytes + ", residentBytes=" + residentBytes
+                + ", budget=" + budget + ", evictions=" + evictions + ", reloads=" + reloads
+                + ", patchHits=" + patchHits + ", patchMisses=" + patchMisses
+                + ", bytesBySite=" + bytesBySite + '}';
+    }
+
+}
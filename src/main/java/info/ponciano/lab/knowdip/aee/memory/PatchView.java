@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
+import info.ponciano.lab.jpc.pointcloud.components.PointColor;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Patch described by the indices of its points in its parent point cloud.
+ * <p>
+ * A view costs four bytes per point, or nothing when its points are
+ * contiguous in the parent, instead of a copy of the points. The points are
+ * only gathered when the view is materialized, and the gathered cloud shares
+ * the points of the parent.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class PatchView {
+
+    private final String parent;
+    /**
+     * Sorted indices of the points, {@code null} for a range.
+     */
+    private final int[] indices;
+    private final int from;
+    private final int to;
+
+    private PatchView(String parent, int[] indices, int from, int to) {
+        this.parent = parent;
+        this.indices = indices;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a view on points of a cloud.
+     *
+     * @param parent URI of the parent point cloud
+     * @param indices indices of the points in the parent
+     * @return the view
+     */
+    public static PatchView of(String parent, int[] indices) {
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                throw new IllegalArgumentException("The point " + sorted[i] + " is twice in the view");
+            }
+        }
+        if (sorted.length > 0 && sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative index in the view: " + sorted[0]);
+        }
+        if (sorted.length == 0 || sorted[sorted.length - 1] - sorted[0] == sorted.length - 1) {
+            //contiguous points
+            int first = sorted.length == 0 ? 0 : sorted[0];
+            return range(parent, first, first + sorted.length);
+        }
+        return new PatchView(parent, sorted, 0, 0);
+    }
+
+    /**
+     * Creates a view on a range of points of a cloud.
+     *
+     * @param parent URI of the parent point cloud
+     * @param from index of the first point, inclusive
+     * @param to index of the last point, exclusive
+     * @return the view
+     */
+    public static PatchView range(String parent, int from, int to) {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+        return new PatchView(parent, null, from, to);
+    }
+
+    /**
+     * Creates the views of every patch of a point cloud.
+     *
+     * @param parent URI of the point cloud
+     * @param cloud point cloud
+     * @return the view of each patch by patch name
+     */
+    public static Map<String, PatchView> of(String parent, Pointcloud cloud) {
+        APointCloud points = cloud.getPoints();
+        Map<PointColor, Integer> position = new IdentityHashMap<>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            position.put(points.get(i), i);
+        }
+        Map<String, PatchView> views = new HashMap<>();
+        cloud.getPatches().forEach((name, patch) -> {
+            int[] idx = new int[patch.size()];
+            for (int j = 0; j < idx.length; j++) {
+                Integer i = position.get(patch.get(j));
+                if (i == null) {
+                    throw new InternalError("The patch " + name + " contains a point that is not in its cloud");
+                }
+                idx[j] = i;
+            }
+            views.put(name, of(parent, idx));
+        });
+        return views;
+    }
+
+    /**
+     * Merges views of the same cloud.
+     *
+     * @param views views to be merged
+     * @return a view containing the points of every view
+     */
+    public static PatchView union(Collection<PatchView> views) {
+        if (views.isEmpty()) {
+            throw new IllegalArgumentException("No view to merge");
+        }
+        String p = views.iterator().next().parent;
+        int size = 0;
+        for (PatchView v : views) {
+            if (!v.parent.equals(p)) {
+                throw new IllegalArgumentException("Views of " + p + " and " + v.parent + " cannot be merged");
+            }
+            size += v.size();
+        }
+        int[] all = new int[size];
+        int k = 0;
+        for (PatchView v : views) {
+            for (int j = 0; j < v.size(); j++) {
+                all[k++] = v.index(j);
+            }
+        }
+        Arrays.sort(all);
+        int n = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (n == 0 || all[i] != all[n - 1]) {
+                all[n++] = all[i];
+            }
+        }
+        return of(p, Arrays.copyOf(all, n));
+    }
+
+    /**
+     * @return the URI of the parent point cloud
+     */
+    public String getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the number of points of the view
+     */
+    public int size() {
+        return indices == null ? to - from : indices.length;
+    }
+
+    /**
+     * @return true if the points of the view are contiguous in the parent
+     */
+    public boolean isRange() {
+        return indices == null;
+    }
+
+    /**
+     * Gets the index of a point of the view in the parent.
+     *
+     * @param k index of the point in the view
+     * @return the index of the point in the parent
+     */
+    public int index(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException(k + " out of " + size());
+        }
+        return indices == null ? from + k : indices[k];
+    }
+
+    /**
+     * Gets a point of the view without copying it.
+     *
+     * @param cloud parent point cloud
+     * @param k index of the point in the view
+     * @return the point of the parent
+     */
+    public PointColor get(Pointcloud cloud, int k) {
+        return cloud.getPoints().get(this.index(k));
+    }
+
+    /**
+     * Gathers the points of the view in a point cloud sharing the points of
+     * the parent.
+     *
+     * @param cloud parent point cloud
+     * @return the points of the view
+     */
+    public Pointcloud materialize(Pointcloud cloud) {
+        APointCloud points = cloud.getPoints();
+        Pointcloud pc = new Pointcloud();
+        for (int k = 0; k < size(); k++) {
+            pc.add(points.get(this.index(k)));
+        }
+        return pc;
+    }
+
+    /**
+     * Estimates the number of heap bytes used by the view.
+     *
+     * @return the estimated size in bytes
+     */
+    public long sizeInBytes() {
+        return 64L + (indices == null ? 0 : 4L * indices.length);
+    }
+
+}
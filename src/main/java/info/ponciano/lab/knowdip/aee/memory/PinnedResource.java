@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Version of a resource of the memory pinned by a reader. The object of the
+ * version stays valid and is not spilled until the pin is closed, even if the
+ * resource is replaced meanwhile.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class PinnedResource implements AutoCloseable {
+
+    private final Memory memory;
+    private final MemoryEntry entry;
+    private final String uri;
+    private final Object data;
+    private final AtomicBoolean closed;
+
+    PinnedResource(Memory memory, MemoryEntry entry, String uri, Object data) {
+        this.memory = memory;
+        this.entry = entry;
+        this.uri = uri;
+        this.data = data;
+        this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * @return the object of the pinned version: a point cloud or a patch
+     */
+    public Object get() {
+        return data;
+    }
+
+    /**
+     * @return the URI used to pin the resource
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the version of the pinned resource, for a patch the version of
+     * its cloud
+     */
+    public long getVersion() {
+        return entry.getVersion();
+    }
+
+    /**
+     * Unpins the resource, closing it twice has no effect.
+     */
+    @Override
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.memory.unpin(this.entry);
+        }
+    }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.knowdip.UriTable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Partitions a point cloud larger than the heap into square tiles of the XY
+ * plane.
+ * <p>
+ * Blocks of points are received from a streaming reader and the points are
+ * appended to a temporary file per tile. The buffers of the tiles are taken
+ * from a bounded pool: when it is exhausted, the least recently used tile is
+ * flushed and gives its buffer. Only a bounded number of temporary files are
+ * kept open, the least recently written being closed first. Once every
+ * block is received, the tiles are built one at a time, so only the largest
+ * tile has to fit in the heap. The patches of the input are kept, a patch
+ * crossing several tiles being split: its parts are named after their tile
+ * to stay unique.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class PointcloudTiler implements PointcloudSink, Closeable {
+
+    /**
+     * Bytes of a point in the temporary files: X, Y, Z, colour and patch.
+     */
+    private static final int RECORD = 32;
+    private static final int TILE_BUFFER = 1 << 15;
+    /**
+     * Largest number of tile buffers, 64 MB in total.
+     */
+    private static final int MAX_BUFFERS = 2048;
+    /**
+     * Largest number of temporary files kept open.
+     */
+    private static final int MAX_CHANNELS = 64;
+
+    private final double tileSize;
+    private final Path directory;
+    /**
+     * Tiles sorted by their Y then X index.
+     */
+    private final Map<Long, Tile> tiles;
+    private final Map<String, Integer> patchIds;
+    private final List<String> patchNames;
+    /**
+     * Tiles holding a buffer, from the least to the most recently used.
+     */
+    private final Map<Tile, Boolean> buffered;
+    /**
+     * Buffers released by the tiles that are built.
+     */
+    private final Deque<ByteBuffer> buffers;
+    private int allocated;
+    /**
+     * Open temporary files, from the least to the most recently written.
+     */
+    private final Map<Tile, FileChannel> channels;
+
+    /**
+     * Temporary file of the points of a tile.
+     */
+    private final class Tile {
+
+        private final int ix;
+        private final int iy;
+        private final Path file;
+        /**
+         * Points not yet written, {@code null} if the tile has no buffer.
+         */
+        private ByteBuffer buffer;
+        private long count;
+
+        Tile(int ix, int iy) {
+            this.ix = ix;
+            this.iy = iy;
+            this.file = directory.resolve(ix + "_" + iy + ".tile");
+        }
+
+        void add(double x, double y, double z, int rgb, int patch) throws IOException {
+            if (buffer == null) {
+                buffer = acquire(this);
+            } else if (buffer.remaining() < RECORD) {
+                this.flush();
+            }
+            buffer.putDouble(x).putDouble(y).putDouble(z).putInt(rgb).putInt(patch);
+            count++;
+        }
+
+        void flush() throws IOException {
+            if (buffer == null || buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            FileChannel ch = channel(this);
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Creates a tiler writing its temporary files in a new directory.
+     *
+     * @param tileSize length of the side of the tiles
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public PointcloudTiler(double tileSize) throws IOException {
+        if (!(tileSize > 0)) {
+            throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        this.directory = Files.createTempDirectory("knowdip-tiles");
+        this.tiles = new TreeMap<>();
+        this.patchIds = new HashMap<>();
+        this.patchNames = new ArrayList<>();
+        this.buffered = new LinkedHashMap<>(16, 0.75f, true);
+        this.buffers = new ArrayDeque<>();
+        this.allocated = 0;
+        this.channels = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets a buffer for a tile, taking the one of the least recently used
+     * tile if the pool is exhausted.
+     */
+    private ByteBuffer acquire(Tile t) throws IOException {
+        ByteBuffer b = this.buffers.poll();
+        if (b == null) {
+            if (this.allocated < MAX_BUFFERS) {
+                b = ByteBuffer.allocate(TILE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+                this.allocated++;
+            } else {
+                Iterator<Tile> eldest = this.buffered.keySet().iterator();
+                Tile victim = eldest.next();
+                eldest.remove();
+                victim.flush();
+                b = victim.buffer;
+                victim.buffer = null;
+            }
+        }
+        this.buffered.put(t, Boolean.TRUE);
+        return b;
+    }
+
+    /**
+     * Releases the buffer of a tile whose points are all written.
+     */
+    private void release(Tile t) {
+        if (t.buffer != null) {
+            this.buffered.remove(t);
+            t.buffer.clear();
+            this.buffers.push(t.buffer);
+            t.buffer = null;
+        }
+    }
+
+    /**
+     * Gets the open temporary file of a tile, closing the least recently
+     * written file if too many are open.
+     */
+    private FileChannel channel(Tile t) throws IOException {
+        FileChannel ch = this.channels.get(t);
+        if (ch == null) {
+            if (this.channels.size() >= MAX_CHANNELS) {
+                Iterator<FileChannel> eldest = this.channels.values().iterator();
+                FileChannel old = eldest.next();
+                eldest.remove();
+                old.close();
+            }
+            ch = FileChannel.open(t.file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.channels.put(t, ch);
+        }
+        return ch;
+    }
+
+    /**
+     * Closes the temporary file of a tile if it is open.
+     */
+    private void closeChannel(Tile t) throws IOException {
+        FileChannel ch = this.channels.remove(t);
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    @Override
+    public void accept(ColumnarPointcloud block) throws IOException {
+        final int n = block.size();
+        int[] patch = new int[n];
+        Arrays.fill(patch, -1);
+        String[] names = block.getPatchNames();
+        int[][] indices = block.getPatchIndices();
+        for (int k = 0; k < names.length; k++) {
+            int id = this.patchIds.computeIfAbsent(names[k], name -> {
+                this.patchNames.add(name);
+                return this.patchNames.size() - 1;
+            });
+            for (int i : indices[k]) {
+                patch[i] = id;
+            }
+        }
+        final double[] x = block.getX();
+        final double[] y = block.getY();
+        final double[] z = block.getZ();
+        final int[] rgb = block.getRGB();
+        Tile last = null;
+        for (int i = 0; i < n; i++) {
+            int ix = (int) Math.floor(x[i] / tileSize);
+            int iy = (int) Math.floor(y[i] / tileSize);
+            long key = (long) iy << 32 | (ix & 0xFFFFFFFFL);
+            Tile t = this.tiles.get(key);
+            if (t == null) {
+                t = new Tile(ix, iy);
+                this.tiles.put(key, t);
+            }
+            if (t != last) {
+                if (t.buffer != null) {
+                    //the tile becomes the most recently used
+                    this.buffered.get(t);
+                }
+                last = t;
+            }
+            t.add(x[i], y[i], z[i], rgb[i], patch[i]);
+        }
+    }
+
+    /**
+     * Builds the tiles and stores them in a memory. Each tile is stored as
+     * soon as it is built, so that the memory can write it in its directory.
+     *
+     * @param memory memory receiving the tiles
+     * @param prefix prefix of the names of the tiles
+     * @return the URI of each tile, in the order of the tiles
+     * @throws IOException if a tile cannot be read or stored
+     */
+    public List<String> store(Memory memory, String prefix) throws IOException {
+        List<String> uris = new ArrayList<>(this.tiles.size());
+        for (Tile t : this.tiles.values()) {
+            t.flush();
+            this.release(t);
+            this.closeChannel(t);
+            String name = prefix + "_" + t.ix + "_" + t.iy;
+            String uri = UriTable.qualified(name);
+            memory.attach(uri, this.build(t, name));
+            Files.deleteIfExists(t.file);
+            uris.add(uri);
+        }
+        return uris;
+    }
+
+    /**
+     * Reads the temporary file of a tile.
+     */
+    private ColumnarPointcloud build(Tile t, String name) throws IOException {
+        if (t.count > Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many points in the tile " + name + ", the tile size must be reduced");
+        }
+        final int n = (int) t.count;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        int[] patch = new int[n];
+        try (FileChannel ch = FileChannel.open(t.file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(RECORD * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            int i = 0;
+            while (i < n) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), (long) (n - i) * RECORD));
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf) < 0) {
+                        throw new IOException("Truncated tile " + t.file);
+                    }
+                }
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    x[i] = buf.getDouble();
+                    y[i] = buf.getDouble();
+                    z[i] = buf.getDouble();
+                    rgb[i] = buf.getInt();
+                    patch[i] = buf.getInt();
+                    i++;
+                }
+            }
+        }
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        for (int p : patch) {
+            if (p >= 0) {
+                counts.merge(p, 1, Integer::sum);
+            }
+        }
+        String[] names = new String[counts.size()];
+        int[][] indices = new int[counts.size()][];
+        Map<Integer, Integer> slot = new HashMap<>();
+        int s = 0;
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            slot.put(e.getKey(), s);
+            names[s] = name + "_" + this.patchNames.get(e.getKey());
+            indices[s] = new int[e.getValue()];
+            s++;
+        }
+        int[] filled = new int[names.length];
+        for (int i = 0; i < n; i++) {
+            if (patch[i] >= 0) {
+                int k = slot.get(patch[i]);
+                indices[k][filled[k]++] = i;
+            }
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, names, indices);
+    }
+
+    /**
+     * @return the number of tiles containing at least a point
+     */
+    public int getTileCount() {
+        return this.tiles.size();
+    }
+
+    /**
+     * Deletes the temporary files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        for (Tile t : this.tiles.values()) {
+            this.closeChannel(t);
+            Files.deleteIfExists(t.file);
+        }
+        Files.deleteIfExists(this.directory);
+    }
+
+}
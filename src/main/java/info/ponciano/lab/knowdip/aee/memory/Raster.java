@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Image stored as square tiles of 8-bit interleaved bands.
+ * <p>
+ * A raster read from a file maps its tiles without reading them: only the
+ * pages of the regions accessed are loaded by the system, so regions of
+ * rasters larger than the heap can be read. A tile is copied in the heap the
+ * first time it is written, the file is never modified. Tiles of a new raster
+ * are allocated when they are first written.</p>
+ * <pre>
+ * header (32 bytes, little endian)
+ *   int  magic "KDRT"
+ *   int  version
+ *   int  width
+ *   int  height
+ *   int  number of bands
+ *   int  size of the tiles
+ *   long reserved
+ * tiles, row by row, each of size * size * bands bytes
+ * </pre>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public final class Raster {
+
+    public static final int DEFAULT_TILE = 256;
+    static final int MAGIC = 0x4B445254;
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    /**
+     * Largest region mapped at once.
+     */
+    private static final long WINDOW = 1L << 30;
+    /**
+     * Largest number of bytes of a strip of image decoded at once.
+     */
+    private static final long STRIP = 64L << 20;
+
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int tile;
+    private final int tilesX;
+    private final int tilesY;
+    private final int tileBytes;
+    /**
+     * Content of each tile, {@code null} for a tile never written of a new
+     * raster.
+     */
+    private final ByteBuffer[] tiles;
+    /**
+     * True for the tiles copied in the heap.
+     */
+    private final boolean[] owned;
+    private int ownedCount;
+
+    private Raster(int width, int height, int bands, int tile) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid raster size " + width + "x" + height);
+        }
+        if (bands < 1 || bands > 4) {
+            throw new IllegalArgumentException("A raster has from 1 to 4 bands: " + bands);
+        }
+        if (tile <= 0 || (long) tile * tile * bands > WINDOW) {
+            throw new IllegalArgumentException("Invalid tile size " + tile);
+        }
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        this.tile = tile;
+        this.tilesX = (width + tile - 1) / tile;
+        this.tilesY = (height + tile - 1) / tile;
+        this.tileBytes = tile * tile * bands;
+        this.tiles = new ByteBuffer[Math.multiplyExact(tilesX, tilesY)];
+        this.owned = new boolean[tiles.length];
+        this.ownedCount = 0;
+    }
+
+    /**
+     * Creates a black raster.
+     *
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param bands number of bands, 3 for RGB, 4 for RGBA
+     * @return the new raster
+     */
+    public static Raster create(int width, int height, int bands) {
+        return new Raster(width, height, bands, DEFAULT_TILE);
+    }
+
+    /**
+     * Creates a black raster with a given tile size.
+     *
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param bands number of bands
+     * @param tile size of the tiles in pixels
+     * @return the new raster
+     */
+    public static Raster create(int width, int height, int bands, int tile) {
+        return new Raster(width, height, bands, tile);
+    }
+
+    /**
+     * Copies an image in a raster of 3 bands, or 4 if the image has an alpha
+     * channel.
+     *
+     * @param image image to be copied
+     * @return the new raster
+     */
+    public static Raster of(BufferedImage image) {
+        Raster r = create(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha() ? 4 : 3);
+        r.copy(image);
+        return r;
+    }
+
+    /**
+     * Decodes an image file with ImageIO strip by strip: the strips are
+     * written in a temporary raster file which is then mapped, so only one
+     * strip of the image is in the heap at a time.
+     *
+     * @param path path of the image
+     * @return the raster of 3 bands, or 4 if the image has an alpha channel,
+     * or {@code null} if no reader supports the format of the image
+     * @throws IOException if the image cannot be read
+     */
+    public static Raster decode(String path) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File(path))) {
+            if (in == null) {
+                throw new IOException("Cannot open the image " + path);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            Path file = null;
+            try {
+                reader.setInput(in, true, true);
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                final int bands = types.hasNext() && types.next().getColorModel().hasAlpha() ? 4 : 3;
+                //whole rows of tiles, decoded with 4 bytes per pixel
+                final int rows = (int) Math.max(1, Math.min(STRIP / (4L * width * DEFAULT_TILE),
+                        (height + DEFAULT_TILE - 1) / DEFAULT_TILE)) * DEFAULT_TILE;
+                file = Files.createTempFile("knowdip", ".krt");
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    write(header(width, height, bands, DEFAULT_TILE), ch);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    for (int y = 0; y < height; y += rows) {
+                        int h = Math.min(rows, height - y);
+                        param.setSourceRegion(new Rectangle(0, y, width, h));
+                        Raster strip = create(width, h, bands);
+                        strip.copy(reader.read(0, param));
+                        strip.encodeTiles(ch);
+                    }
+                }
+                return open(file.toString());
+            } finally {
+                reader.dispose();
+                if (file != null) {
+                    //the mapping stays valid once the file is deleted
+                    try {
+                        Files.delete(file);
+                    } catch (IOException ex) {
+                        file.toFile().deleteOnExit();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies an image at the origin of the raster.
+     *
+     * @param image image of 3 or 4 bands, not larger than the raster
+     */
+    private void copy(BufferedImage image) {
+        final int w = Math.min(width, image.getWidth());
+        int[] argb = new int[w];
+        byte[] row = new byte[w * bands];
+        for (int y = 0; y < Math.min(height, image.getHeight()); y++) {
+            image.getRGB(0, y, w, 1, argb, 0, w);
+            for (int x = 0; x < w; x++) {
+                int p = argb[x];
+                int k = x * bands;
+                row[k] = (byte) (p >> 16);
+                row[k + 1] = (byte) (p >> 8);
+                row[k + 2] = (byte) p;
+                if (bands == 4) {
+                    row[k + 3] = (byte) (p >>> 24);
+                }
+            }
+            this.writeRegion(0, y, w, 1, row);
+        }
+    }
+
+    /**
+     * Maps a raster file.
+     *
+     * @param path path of the raster
+     * @return the raster, its tiles are read on demand
+     * @throws IOException if the file is not a raster
+     */
+    public static Raster open(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            //mapped regions stay valid once the channel is closed
+            return map(ch, 0);
+        }
+    }
+
+    /**
+     * Maps the raster stored at a given offset of a channel.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @return the raster
+     * @throws IOException if the content is not a raster
+     */
+    static Raster map(FileChannel ch, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (ch.read(header, offset + header.position()) < 0) {
+                throw new IOException("Unexpected end of raster");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a raster");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported raster version: " + version);
+        }
+        Raster r = new Raster(header.getInt(), header.getInt(), header.getInt(), header.getInt());
+        final int perWindow = (int) (WINDOW / r.tileBytes);
+        for (int first = 0; first < r.tiles.length; first += perWindow) {
+            int count = Math.min(perWindow, r.tiles.length - first);
+            MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY,
+                    offset + HEADER + (long) first * r.tileBytes, (long) count * r.tileBytes);
+            for (int t = 0; t < count; t++) {
+                window.position(t * r.tileBytes);
+                window.limit((t + 1) * r.tileBytes);
+                r.tiles[first + t] = window.slice();
+                window.clear();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Writes the raster at the current position of the channel.
+     *
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    long encode(FileChannel ch) throws IOException {
+        return write(header(width, height, bands, tile), ch) + this.encodeTiles(ch);
+    }
+
+    private static ByteBuffer header(int width, int height, int bands, int tile) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(bands).putInt(tile).putLong(0L);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes the tiles of the raster, row by row, at the current position of
+     * the channel.
+     *
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    private long encodeTiles(FileChannel ch) throws IOException {
+        long written = 0;
+        ByteBuffer empty = null;
+        for (int t = 0; t < tiles.length; t++) {
+            ByteBuffer b = this.tile(t);
+            if (b == null) {
+                if (empty == null) {
+                    empty = ByteBuffer.allocate(tileBytes);
+                }
+                b = empty;
+            }
+            written += write(b.duplicate().clear(), ch);
+        }
+        return written;
+    }
+
+    private static long write(ByteBuffer b, FileChannel ch) throws IOException {
+        long n = 0;
+        while (b.hasRemaining()) {
+            n += ch.write(b);
+        }
+        return n;
+    }
+
+    private synchronized ByteBuffer tile(int t) {
+        return tiles[t];
+    }
+
+    /**
+     * Gets a tile that can be written, copying it in the heap if needed.
+     *
+     * @param t index of the tile
+     * @return the content of the tile
+     */
+    private synchronized ByteBuffer writableTile(int t) {
+        if (!owned[t]) {
+            ByteBuffer copy = ByteBuffer.allocate(tileBytes);
+            if (tiles[t] != null) {
+                copy.put(tiles[t].duplicate().clear());
+                copy.clear();
+            }
+            tiles[t] = copy;
+            owned[t] = true;
+            ownedCount++;
+        }
+        return tiles[t];
+    }
+
+    /**
+     * Reads a region of the raster. Only the tiles intersecting the region
+     * are read.
+     *
+     * @param x column of the first pixel
+     * @param y row of the first pixel
+     * @param w width of the region
+     * @param h height of the region
+     * @return the bands of the pixels, row by row
+     */
+    public byte[] readRegion(int x, int y, int w, int h) {
+        this.check(x, y, w, h);
+        byte[] dst = new byte[w * h * bands];
+        for (int ty = y / tile; ty <= (y + h - 1) / tile; ty++) {
+            for (int tx = x / tile; tx <= (x + w - 1) / tile; tx++) {
+                ByteBuffer b = this.tile(ty * tilesX + tx);
+                if (b == null) {
+                    continue;
+                }
+                int x0 = Math.max(x, tx * tile);
+                int x1 = Math.min(x + w, (tx + 1) * tile);
+                int y0 = Math.max(y, ty * tile);
+                int y1 = Math.min(y + h, (ty + 1) * tile);
+                for (int py = y0; py < y1; py++) {
+                    int src = ((py - ty * tile) * tile + (x0 - tx * tile)) * bands;
+                    b.get(src, dst, ((py - y) * w + (x0 - x)) * bands, (x1 - x0) * bands);
+                }
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Writes a region of the raster.
+     *
+     * @param x column of the first pixel
+     * @param y row of the first pixel
+     * @param w width of the region
+     * @param h height of the region
+     * @param src the bands of the pixels, row by row
+     */
+    public void writeRegion(int x, int y, int w, int h, byte[] src) {
+        this.check(x, y, w, h);
+        if (src.length < w * h * bands) {
+            throw new IllegalArgumentException("The region needs " + (w * h * bands) + " bytes");
+        }
+        for (int ty = y / tile; ty <= (y + h - 1) / tile; ty++) {
+            for (int tx = x / tile; tx <= (x + w - 1) / tile; tx++) {
+                ByteBuffer b = this.writableTile(ty * tilesX + tx);
+                int x0 = Math.max(x, tx * tile);
+                int x1 = Math.min(x + w, (tx + 1) * tile);
+                int y0 = Math.max(y, ty * tile);
+                int y1 = Math.min(y + h, (ty + 1) * tile);
+                for (int py = y0; py < y1; py++) {
+                    int dst = ((py - ty * tile) * tile + (x0 - tx * tile)) * bands;
+                    b.put(dst, src, ((py - y) * w + (x0 - x)) * bands, (x1 - x0) * bands);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a region of a raster of 3 or 4 bands in an image.
+     *
+     * @param x column of the first pixel
+     * @param y row of the first pixel
+     * @param w width of the region
+     * @param h height of the region
+     * @return the image of the region
+     */
+    public BufferedImage toImage(int x, int y, int w, int h) {
+        if (bands < 3) {
+            throw new UnsupportedOperationException("Only RGB and RGBA rasters can be converted in images");
+        }
+        byte[] data = this.readRegion(x, y, w, h);
+        BufferedImage image = new BufferedImage(w, h, bands == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] argb = new int[w];
+        for (int py = 0; py < h; py++) {
+            for (int px = 0; px < w; px++) {
+                int k = (py * w + px) * bands;
+                int a = bands == 4 ? data[k + 3] & 0xFF : 0xFF;
+                argb[px] = a << 24 | (data[k] & 0xFF) << 16 | (data[k + 1] & 0xFF) << 8 | (data[k + 2] & 0xFF);
+            }
+            image.setRGB(0, py, w, 1, argb, 0, w);
+        }
+        return image;
+    }
+
+    private void check(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height) {
+            throw new IndexOutOfBoundsException("Region " + x + "," + y + " " + w + "x" + h
+                    + " out of the raster " + width + "x" + height);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getTileSize() {
+        return tile;
+    }
+
+    /**
+     * Estimates the number of heap bytes used by the raster: mapped tiles are
+     * not counted.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long sizeInBytes() {
+        return 64L + 16L * tiles.length + (long) ownedCount * tileBytes;
+    }
+
+}
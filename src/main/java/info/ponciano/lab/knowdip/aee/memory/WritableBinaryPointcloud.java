@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Point cloud persisted in the binary {@code .kpc} format.
+ * <p>
+ * The file is a fixed header followed by columnar blocks (X, Y and Z as
+ * doubles, packed RGB as integers) and the patch table. Every block is read
+ * back through {@code FileChannel.map} without any parsing.</p>
+ * <pre>
+ * header (32 bytes, little endian)
+ *   int  magic "KDPC"
+ *   int  version
+ *   int  number of points n
+ *   int  number of patches
+ *   long offset of the patch table
+ *   long reserved
+ * double[n] x, double[n] y, double[n] z, int[n] rgb
+ * patch table: for each patch, int name length, UTF-8 name, int count, int[count] indices
+ * </pre>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class WritableBinaryPointcloud implements WritableResource<Pointcloud> {
+
+    static final String EXT = "kpc";
+    static final int MAGIC = 0x4B445043;
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    /**
+     * Largest region mapped at once, files can be larger than 2GB.
+     */
+    private static final int WINDOW = 1 << 30;
+    private static final int BUFFER = 1 << 20;
+
+    private Pointcloud cloud;
+
+    WritableBinaryPointcloud(Pointcloud cloud) {
+        this.cloud = cloud;
+    }
+
+    WritableBinaryPointcloud() {
+        this.cloud = new Pointcloud();
+    }
+
+    @Override
+    public void write(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(ColumnarPointcloud.of(cloud), ch);
+        }
+    }
+
+    @Override
+    public void read(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            this.cloud = decode(ch, 0).toPointcloud();
+        }
+    }
+
+    @Override
+    public String getExt() {
+        return EXT;
+    }
+
+    @Override
+    public Pointcloud getData() {
+        return this.cloud;
+    }
+
+    @Override
+    public boolean hasRightExt(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return ColumnarPointcloud.heapBytes(this.cloud);
+    }
+
+    @Override
+    public long getPointCount() {
+        return this.cloud.size();
+    }
+
+    /**
+     * Writes the columns at the current position of the channel.
+     *
+     * @param pc columns to be written
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    static long encode(ColumnarPointcloud pc, FileChannel ch) throws IOException {
+        final long start = ch.position();
+        final int n = pc.size();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(pc.getPatchNames().length);
+        buf.putLong(HEADER + 28L * n).putLong(0L);
+        for (double[] column : new double[][]{pc.getX(), pc.getY(), pc.getZ()}) {
+            for (double v : column) {
+                if (buf.remaining() < Double.BYTES) {
+                    flush(buf, ch);
+                }
+                buf.putDouble(v);
+            }
+        }
+        putInts(pc.getRGB(), buf, ch);
+        String[] names = pc.getPatchNames();
+        int[][] indices = pc.getPatchIndices();
+        for (int k = 0; k < names.length; k++) {
+            byte[] name = names[k].getBytes(StandardCharsets.UTF_8);
+            if (buf.remaining() < name.length + 2 * Integer.BYTES) {
+                flush(buf, ch);
+            }
+            if (buf.remaining() < name.length + 2 * Integer.BYTES) {
+                throw new IOException("Patch name too long: " + names[k]);
+            }
+            buf.putInt(name.length).put(name).putInt(indices[k].length);
+            putInts(indices[k], buf, ch);
+        }
+        flush(buf, ch);
+        return ch.position() - start;
+    }
+
+    /**
+     * Reads the columns stored at a given offset of the channel.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @return the columns read
+     * @throws IOException if the content is not a binary point cloud
+     */
+    static ColumnarPointcloud decode(FileChannel ch, long offset) throws IOException {
+        ByteBuffer header = read(ch, offset, HEADER);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a binary point cloud");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary point cloud version: " + version);
+        }
+        final int n = header.getInt();
+        final int patches = header.getInt();
+        long pos = offset + header.getLong();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        readDoubles(ch, offset + HEADER, x);
+        readDoubles(ch, offset + HEADER + 8L * n, y);
+        readDoubles(ch, offset + HEADER + 16L * n, z);
+        readInts(ch, offset + HEADER + 24L * n, rgb);
+        String[] names = new String[patches];
+        int[][] indices = new int[patches][];
+        for (int k = 0; k < patches; k++) {
+            int length = read(ch, pos, Integer.BYTES).getInt();
+            pos += Integer.BYTES;
+            ByteBuffer name = read(ch, pos, length);
+            names[k] = StandardCharsets.UTF_8.decode(name).toString();
+            pos += length;
+            indices[k] = new int[read(ch, pos, Integer.BYTES).getInt()];
+            pos += Integer.BYTES;
+            readInts(ch, pos, indices[k]);
+            pos += 4L * indices[k].length;
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, names, indices);
+    }
+
+    /**
+     * Reads the names of the patches of a file without reading its points.
+     *
+     * @param path path of a binary point cloud
+     * @return the names of the patches
+     * @throws IOException if the file is not a binary point cloud
+     */
+    static String[] patchNames(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer header = read(ch, 0, HEADER);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a binary point cloud");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary point cloud version: " + version);
+            }
+            header.getInt();
+            String[] names = new String[header.getInt()];
+            long pos = header.getLong();
+            for (int k = 0; k < names.length; k++) {
+                int length = read(ch, pos, Integer.BYTES).getInt();
+                pos += Integer.BYTES;
+                names[k] = StandardCharsets.UTF_8.decode(read(ch, pos, length)).toString();
+                pos += length;
+                //the indices are skipped
+                pos += Integer.BYTES + 4L * read(ch, pos, Integer.BYTES).getInt();
+            }
+            return names;
+        }
+    }
+
+    private static void putInts(int[] values, ByteBuffer buf, FileChannel ch) throws IOException {
+        for (int v : values) {
+            if (buf.remaining() < Integer.BYTES) {
+                flush(buf, ch);
+            }
+            buf.putInt(v);
+        }
+    }
+
+    private static void flush(ByteBuffer buf, FileChannel ch) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of binary point cloud");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void readDoubles(FileChannel ch, long pos, double[] dst) throws IOException {
+        final int step = WINDOW / Double.BYTES;
+        for (int i = 0; i < dst.length; i += step) {
+            int count = Math.min(step, dst.length - i);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, pos + 8L * i, 8L * count);
+            m.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(dst, i, count);
+        }
+    }
+
+    private static void readInts(FileChannel ch, long pos, int[] dst) throws IOException {
+        final int step = WINDOW / Integer.BYTES;
+        for (int i = 0; i < dst.length; i += step) {
+            int count = Math.min(step, dst.length - i);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, pos + 4L * i, 4L * count);
+            m.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dst, i, count);
+        }
+    }
+
+}
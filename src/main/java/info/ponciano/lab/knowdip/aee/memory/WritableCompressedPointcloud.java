@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Point cloud persisted in the compressed {@code .kpz} format.
+ * <p>
+ * Points are grouped in blocks. In each block the coordinates are quantized
+ * relatively to the minimum of the block, then every column is stored as the
+ * zigzag varint of the difference with the previous point. A block index at
+ * the end of the file gives the offset of each block, so that a range of
+ * points can be decoded without reading the whole file. Coordinates are
+ * restored within half a quantum.</p>
+ * <pre>
+ * header (56 bytes, little endian)
+ *   int    magic "KDPZ"
+ *   int    version
+ *   int    number of points n
+ *   int    number of patches
+ *   int    points per block
+ *   int    number of blocks
+ *   double quantum
+ *   long   offset of the block index
+ *   long   offset of the patch table
+ *   long   length of the whole content
+ * blocks: double[3] origin, varint x, y, z and rgb deltas
+ * block index: long[blocks] offset of each block
+ * patch table: for each patch, varint name length, UTF-8 name, varint count, varint index deltas
+ * </pre>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class WritableCompressedPointcloud implements WritableResource<Pointcloud> {
+
+    static final String EXT = "kpz";
+    static final int MAGIC = 0x4B44505A;
+    static final int VERSION = 1;
+    static final int HEADER = 56;
+    /**
+     * Default quantum of the coordinates: a tenth of a millimetre for clouds
+     * in metres.
+     */
+    public static final double DEFAULT_QUANTUM = 1e-4;
+    static final int BLOCK = 4096;
+    private static final int BUFFER = 1 << 20;
+    /**
+     * Largest size of an encoded point: three coordinates and a colour of ten
+     * bytes each.
+     */
+    private static final int POINT_MAX = 40;
+
+    private Pointcloud cloud;
+    private final double quantum;
+
+    WritableCompressedPointcloud(Pointcloud cloud, double quantum) {
+        if (!(quantum > 0)) {
+            throw new IllegalArgumentException("The quantum must be positive");
+        }
+        this.cloud = cloud;
+        this.quantum = quantum;
+    }
+
+    WritableCompressedPointcloud(Pointcloud cloud) {
+        this(cloud, DEFAULT_QUANTUM);
+    }
+
+    WritableCompressedPointcloud() {
+        this(new Pointcloud());
+    }
+
+    @Override
+    public void write(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(ColumnarPointcloud.of(cloud), quantum, ch);
+        }
+    }
+
+    @Override
+    public void read(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            this.cloud = decode(ch, 0).toPointcloud();
+        }
+    }
+
+    @Override
+    public String getExt() {
+        return EXT;
+    }
+
+    @Override
+    public Pointcloud getData() {
+        return this.cloud;
+    }
+
+    /**
+     * @return the precision of the stored coordinates
+     */
+    public double getQuantum() {
+        return quantum;
+    }
+
+    @Override
+    public boolean hasRightExt(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return ColumnarPointcloud.heapBytes(this.cloud);
+    }
+
+    @Override
+    public long getPointCount() {
+        return this.cloud.size();
+    }
+
+    /**
+     * Writes the compressed columns at the current position of the channel.
+     *
+     * @param pc columns to be written
+     * @param quantum precision of the stored coordinates
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    static long encode(ColumnarPointcloud pc, double quantum, FileChannel ch) throws IOException {
+        final long start = ch.position();
+        final int n = pc.size();
+        final int blocks = (n + BLOCK - 1) / BLOCK;
+        final double[] x = pc.getX();
+        final double[] y = pc.getY();
+        final double[] z = pc.getZ();
+        final int[] rgb = pc.getRGB();
+        long[] index = new long[blocks];
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        //the offsets are only known at the end, the header is rewritten then
+        buf.position(HEADER);
+        long pos = 0;
+        for (int b = 0; b < blocks; b++) {
+            final int from = b * BLOCK;
+            final int to = Math.min(n, from + BLOCK);
+            if (buf.remaining() < 3 * Double.BYTES) {
+                pos += flush(buf, ch);
+            }
+            index[b] = pos + buf.position();
+            double ox = min(x, from, to);
+            double oy = min(y, from, to);
+            double oz = min(z, from, to);
+            buf.putDouble(ox).putDouble(oy).putDouble(oz);
+            long px = 0;
+            long py = 0;
+            long pz = 0;
+            int pc0 = 0;
+            for (int i = from; i < to; i++) {
+                if (buf.remaining() < POINT_MAX) {
+                    pos += flush(buf, ch);
+                }
+                long qx = quantize(x[i], ox, quantum);
+                long qy = quantize(y[i], oy, quantum);
+                long qz = quantize(z[i], oz, quantum);
+                putVarLong(buf, zigzag(qx - px));
+                putVarLong(buf, zigzag(qy - py));
+                putVarLong(buf, zigzag(qz - pz));
+                putVarLong(buf, zigzag((long) rgb[i] - pc0));
+                px = qx;
+                py = qy;
+                pz = qz;
+                pc0 = rgb[i];
+            }
+        }
+        final long indexOffset = pos + buf.position();
+        for (long offset : index) {
+            if (buf.remaining() < Long.BYTES) {
+                pos += flush(buf, ch);
+            }
+            buf.putLong(offset);
+        }
+        final long patchOffset = pos + buf.position();
+        String[] names = pc.getPatchNames();
+        int[][] indices = pc.getPatchIndices();
+        for (int k = 0; k < names.length; k++) {
+            byte[] name = names[k].getBytes(StandardCharsets.UTF_8);
+            if (buf.remaining() < name.length + 20) {
+                pos += flush(buf, ch);
+            }
+            if (buf.remaining() < name.length + 20) {
+                throw new IOException("Patch name too long: " + names[k]);
+            }
+            putVarLong(buf, name.length);
+            buf.put(name);
+            int[] sorted = indices[k].clone();
+            Arrays.sort(sorted);
+            putVarLong(buf, sorted.length);
+            int previous = 0;
+            for (int i : sorted) {
+                if (buf.remaining() < 10) {
+                    pos += flush(buf, ch);
+                }
+                putVarLong(buf, i - previous);
+                previous = i;
+            }
+        }
+        pos += flush(buf, ch);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(names.length);
+        header.putInt(BLOCK).putInt(blocks).putDouble(quantum);
+        header.putLong(indexOffset).putLong(patchOffset).putLong(pos);
+        header.flip();
+        while (header.hasRemaining()) {
+            ch.write(header, start + header.position());
+        }
+        ch.position(start + pos);
+        return pos;
+    }
+
+    /**
+     * Reads the compressed point cloud stored at a given offset of the
+     * channel.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @return the columns read with the patches
+     * @throws IOException if the content is not a compressed point cloud
+     */
+    static ColumnarPointcloud decode(FileChannel ch, long offset) throws IOException {
+        Header h = new Header(ch, offset);
+        ColumnarPointcloud points = decode(ch, offset, h, 0, h.size);
+        String[] names = new String[h.patches];
+        int[][] indices = new int[h.patches][];
+        ByteBuffer buf = map(ch, offset + h.patchOffset, h.end - h.patchOffset);
+        for (int k = 0; k < h.patches; k++) {
+            byte[] name = new byte[(int) getVarLong(buf)];
+            buf.get(name);
+            names[k] = new String(name, StandardCharsets.UTF_8);
+            int[] idx = new int[(int) getVarLong(buf)];
+            int previous = 0;
+            for (int j = 0; j < idx.length; j++) {
+                previous += (int) getVarLong(buf);
+                idx[j] = previous;
+            }
+            indices[k] = idx;
+        }
+        return new ColumnarPointcloud(points.getX(), points.getY(), points.getZ(), points.getRGB(), names, indices);
+    }
+
+    /**
+     * Reads a range of points without reading the other blocks of the file.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @param from index of the first point, inclusive
+     * @param to index of the last point, exclusive
+     * @return the points of the range, without patch
+     * @throws IOException if the content is not a compressed point cloud
+     */
+    static ColumnarPointcloud decode(FileChannel ch, long offset, int from, int to) throws IOException {
+        return decode(ch, offset, new Header(ch, offset), from, to);
+    }
+
+    private static ColumnarPointcloud decode(FileChannel ch, long offset, Header h, int from, int to) throws IOException {
+        if (from < 0 || to > h.size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of " + h.size + " points");
+        }
+        final int count = to - from;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] z = new double[count];
+        int[] rgb = new int[count];
+        if (count > 0) {
+            final int first = from / h.block;
+            final int last = (to - 1) / h.block;
+            final int bound = Math.min(h.blocks, last + 2);
+            ByteBuffer index = read(ch, offset + h.indexOffset + (long) first * Long.BYTES, (bound - first) * Long.BYTES);
+            long end = index.getLong();
+            for (int b = first; b <= last; b++) {
+                long begin = end;
+                end = b + 1 < bound ? index.getLong() : h.indexOffset;
+                ByteBuffer buf = map(ch, offset + begin, end - begin);
+                double ox = buf.getDouble();
+                double oy = buf.getDouble();
+                double oz = buf.getDouble();
+                long qx = 0;
+                long qy = 0;
+                long qz = 0;
+                int c = 0;
+                final int start = b * h.block;
+                final int stop = Math.min(h.size, start + h.block);
+                for (int i = start; i < stop && i < to; i++) {
+                    qx += unzigzag(getVarLong(buf));
+                    qy += unzigzag(getVarLong(buf));
+                    qz += unzigzag(getVarLong(buf));
+                    c += (int) unzigzag(getVarLong(buf));
+                    if (i >= from) {
+                        x[i - from] = ox + qx * h.quantum;
+                        y[i - from] = oy + qy * h.quantum;
+                        z[i - from] = oz + qz * h.quantum;
+                        rgb[i - from] = c;
+                    }
+                }
+            }
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, new String[0], new int[0][]);
+    }
+
+    /**
+     * Header of a compressed point cloud.
+     */
+    private static final class Header {
+
+        final int size;
+        final int patches;
+        final int block;
+        final int blocks;
+        final double quantum;
+        final long indexOffset;
+        final long patchOffset;
+        final long end;
+
+        Header(FileChannel ch, long offset) throws IOException {
+            ByteBuffer header = read(ch, offset, HEADER);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a compressed point cloud");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported compressed point cloud version: " + version);
+            }
+            this.size = header.getInt();
+            this.patches = header.getInt();
+            this.block = header.getInt();
+            this.blocks = header.getInt();
+            this.quantum = header.getDouble();
+            this.indexOffset = header.getLong();
+            this.patchOffset = header.getLong();
+            this.end = header.getLong();
+        }
+    }
+
+    private static double min(double[] values, int from, int to) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    private static long quantize(double v, double origin, double quantum) {
+        return Math.round((v - origin) / quantum);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buf, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    private static long getVarLong(ByteBuffer buf) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    private static int flush(ByteBuffer buf, FileChannel ch) throws IOException {
+        buf.flip();
+        int written = buf.remaining();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+        return written;
+    }
+
+    private static ByteBuffer map(FileChannel ch, long pos, long length) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of compressed point cloud");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+}
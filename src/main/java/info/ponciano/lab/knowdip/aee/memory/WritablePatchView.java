@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Patch view persisted in the {@code .kpv} format: the URI of the parent and
+ * either the range of the points or their sorted indices as varint deltas.
+ * <pre>
+ * header (24 bytes, little endian)
+ *   int  magic "KDPV"
+ *   int  version
+ *   int  number of points n
+ *   int  first point of a range, -1 for indices
+ *   long length of the whole content
+ * int length, UTF-8 URI of the parent
+ * varint[n] index deltas, absent for a range
+ * </pre>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class WritablePatchView implements WritableResource<PatchView> {
+
+    static final String EXT = "kpv";
+    static final int MAGIC = 0x4B445056;
+    static final int VERSION = 1;
+    static final int HEADER = 24;
+
+    private PatchView view;
+
+    WritablePatchView(PatchView view) {
+        this.view = view;
+    }
+
+    WritablePatchView() {
+        this.view = null;
+    }
+
+    @Override
+    public void write(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(view, ch);
+        }
+    }
+
+    @Override
+    public void read(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            this.view = decode(ch, 0);
+        }
+    }
+
+    @Override
+    public PatchView getData() {
+        return this.view;
+    }
+
+    @Override
+    public boolean hasRightExt(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    @Override
+    public String getExt() {
+        return EXT;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return this.view.sizeInBytes();
+    }
+
+    @Override
+    public long getPointCount() {
+        return this.view.size();
+    }
+
+    /**
+     * Writes a view at the current position of the channel.
+     *
+     * @param view view to be written
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    static long encode(PatchView view, FileChannel ch) throws IOException {
+        byte[] parent = view.getParent().getBytes(StandardCharsets.UTF_8);
+        final int n = view.size();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + Integer.BYTES + parent.length + (view.isRange() ? 0 : 5 * n))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int first = -1;
+        if (view.isRange()) {
+            first = n > 0 ? view.index(0) : 0;
+        }
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(first);
+        buf.putLong(0L);
+        buf.putInt(parent.length).put(parent);
+        if (!view.isRange()) {
+            int previous = 0;
+            for (int k = 0; k < n; k++) {
+                int v = view.index(k) - previous;
+                previous = view.index(k);
+                while ((v & ~0x7F) != 0) {
+                    buf.put((byte) ((v & 0x7F) | 0x80));
+                    v >>>= 7;
+                }
+                buf.put((byte) v);
+            }
+        }
+        buf.putLong(16, buf.position());
+        buf.flip();
+        long written = buf.remaining();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        return written;
+    }
+
+    /**
+     * Reads the view stored at a given offset of the channel.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @return the view read
+     * @throws IOException if the content is not a patch view
+     */
+    static PatchView decode(FileChannel ch, long offset) throws IOException {
+        ByteBuffer header = read(ch, offset, HEADER);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a patch view");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported patch view version: " + version);
+        }
+        final int n = header.getInt();
+        final int first = header.getInt();
+        final long length = header.getLong();
+        ByteBuffer buf = read(ch, offset + HEADER, (int) (length - HEADER));
+        byte[] parent = new byte[buf.getInt()];
+        buf.get(parent);
+        String uri = new String(parent, StandardCharsets.UTF_8);
+        if (first >= 0) {
+            return PatchView.range(uri, first, first + n);
+        }
+        int[] indices = new int[n];
+        int previous = 0;
+        for (int k = 0; k < n; k++) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get();
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += v;
+            indices[k] = previous;
+        }
+        return PatchView.of(uri, indices);
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of patch view");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+}
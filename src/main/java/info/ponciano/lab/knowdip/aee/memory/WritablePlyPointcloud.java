@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.math.Coord3D;
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import info.ponciano.lab.jpc.pointcloud.components.APointCloud;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Point cloud persisted in the binary little endian PLY format, the format
+ * exchanged with mesh tools.
+ * <p>
+ * The vertices are written with their coordinates, normals, colours and the
+ * index of their patch; patch names are stored in comments of the header.
+ * Only the header is parsed on reading, the vertex records are read at fixed
+ * offsets through mapped windows. Any binary little endian PLY file whose
+ * first element is the vertex element can be read: missing normals, colours
+ * or patches are simply absent.</p>
+ * <pre>
+ * ply
+ * format binary_little_endian 1.0
+ * comment knowdip patch &lt;index&gt; &lt;name&gt;
+ * element vertex n
+ * property double x, y, z
+ * property float nx, ny, nz
+ * property uchar red, green, blue
+ * property int patch
+ * end_header
+ * </pre>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class WritablePlyPointcloud implements WritableResource<Pointcloud> {
+
+    public static final String EXT = "ply";
+    private static final String PATCH_COMMENT = "comment knowdip patch ";
+    /**
+     * Largest region mapped at once.
+     */
+    private static final long WINDOW = 1L << 30;
+    private static final int BUFFER = 1 << 20;
+    private static final int MAX_HEADER = 1 << 24;
+    /**
+     * Last line of a header, ending with LF or CRLF.
+     */
+    private static final Pattern HEADER_END = Pattern.compile("(?m)^end_header\r?\n");
+
+    private Pointcloud cloud;
+
+    WritablePlyPointcloud(Pointcloud cloud) {
+        this.cloud = cloud;
+    }
+
+    WritablePlyPointcloud() {
+        this.cloud = new Pointcloud();
+    }
+
+    @Override
+    public void write(String path) throws IOException {
+        ColumnarPointcloud pc = ColumnarPointcloud.of(cloud);
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(new ColumnarPointcloud(pc.getX(), pc.getY(), pc.getZ(), pc.getRGB(),
+                    pc.getPatchNames(), pc.getPatchIndices(), patchNormals(cloud, pc)), ch);
+        }
+    }
+
+    @Override
+    public void read(String path) throws IOException {
+        this.cloud = load(path).toPointcloud();
+    }
+
+    /**
+     * Reads the columns of a PLY file, including the normals if the file has
+     * some.
+     *
+     * @param path path of the file
+     * @return the columns of the points
+     * @throws IOException if the file is not a binary little endian PLY file
+     */
+    public static ColumnarPointcloud load(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return decode(ch, 0);
+        }
+    }
+
+    @Override
+    public String getExt() {
+        return EXT;
+    }
+
+    @Override
+    public Pointcloud getData() {
+        return this.cloud;
+    }
+
+    @Override
+    public boolean hasRightExt(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return ColumnarPointcloud.heapBytes(this.cloud);
+    }
+
+    @Override
+    public long getPointCount() {
+        return this.cloud.size();
+    }
+
+    /**
+     * Gives to each point the mean normal of its patch, the normal read by
+     * {@code GetPatchNormalX}, {@code GetPatchNormalY} and
+     * {@code GetPatchNormalZ}.
+     *
+     * @return the normals, {@code null} if the cloud has no patch
+     */
+    private static float[][] patchNormals(Pointcloud cloud, ColumnarPointcloud pc) {
+        if (pc.getPatchNames().length == 0) {
+            return null;
+        }
+        float[][] normals = new float[3][pc.size()];
+        String[] names = pc.getPatchNames();
+        int[][] indices = pc.getPatchIndices();
+        for (int k = 0; k < names.length; k++) {
+            APointCloud patch = cloud.get(names[k]);
+            Coord3D n = patch == null || patch.size() == 0 ? null : patch.getMeanNormal();
+            if (n != null) {
+                for (int i : indices[k]) {
+                    normals[0][i] = (float) n.getX();
+                    normals[1][i] = (float) n.getY();
+                    normals[2][i] = (float) n.getZ();
+                }
+            }
+        }
+        return normals;
+    }
+
+    /**
+     * Writes the columns at the current position of the channel.
+     *
+     * @param pc columns to be written
+     * @param ch channel opened for writing
+     * @return the number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    static long encode(ColumnarPointcloud pc, FileChannel ch) throws IOException {
+        final long start = ch.position();
+        final int n = pc.size();
+        final float[][] normals = pc.getNormals();
+        final String[] names = pc.getPatchNames();
+        StringBuilder header = new StringBuilder("ply\nformat binary_little_endian 1.0\n");
+        for (int k = 0; k < names.length; k++) {
+            if (names[k].indexOf('\n') >= 0 || names[k].indexOf('\r') >= 0) {
+                throw new IOException("Patch name with a line break: " + names[k]);
+            }
+            header.append(PATCH_COMMENT).append(k).append(' ').append(names[k]).append('\n');
+        }
+        header.append("element vertex ").append(n).append('\n');
+        header.append("property double x\nproperty double y\nproperty double z\n");
+        if (normals != null) {
+            header.append("property float nx\nproperty float ny\nproperty float nz\n");
+        }
+        header.append("property uchar red\nproperty uchar green\nproperty uchar blue\n");
+        if (names.length > 0) {
+            header.append("property int patch\n");
+        }
+        header.append("end_header\n");
+        int[] owner = null;
+        if (names.length > 0) {
+            owner = new int[n];
+            Arrays.fill(owner, -1);
+            int[][] indices = pc.getPatchIndices();
+            for (int k = 0; k < indices.length; k++) {
+                for (int i : indices[k]) {
+                    owner[i] = k;
+                }
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] text = header.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < text.length; i += BUFFER) {
+            buf.put(text, i, Math.min(BUFFER, text.length - i));
+            flush(buf, ch);
+        }
+        final int record = 27 + (normals != null ? 12 : 0) + (owner != null ? 4 : 0);
+        final double[] x = pc.getX();
+        final double[] y = pc.getY();
+        final double[] z = pc.getZ();
+        final int[] rgb = pc.getRGB();
+        for (int i = 0; i < n; i++) {
+            if (buf.remaining() < record) {
+                flush(buf, ch);
+            }
+            buf.putDouble(x[i]).putDouble(y[i]).putDouble(z[i]);
+            if (normals != null) {
+                buf.putFloat(normals[0][i]).putFloat(normals[1][i]).putFloat(normals[2][i]);
+            }
+            buf.put((byte) (rgb[i] >> 16)).put((byte) (rgb[i] >> 8)).put((byte) rgb[i]);
+            if (owner != null) {
+                buf.putInt(owner[i]);
+            }
+        }
+        flush(buf, ch);
+        return ch.position() - start;
+    }
+
+    /**
+     * Property of the vertex element.
+     */
+    private static final class Property {
+
+        private final String name;
+        private final char type;
+        private final int size;
+        private final int offset;
+
+        Property(String name, String type, int offset) throws IOException {
+            this.name = name;
+            this.offset = offset;
+            switch (type) {
+                case "char":
+                case "int8":
+                    this.type = 'b';
+                    this.size = 1;
+                    break;
+                case "uchar":
+                case "uint8":
+                    this.type = 'B';
+                    this.size = 1;
+                    break;
+                case "short":
+                case "int16":
+                    this.type = 's';
+                    this.size = 2;
+                    break;
+                case "ushort":
+                case "uint16":
+                    this.type = 'S';
+                    this.size = 2;
+                    break;
+                case "int":
+                case "int32":
+                    this.type = 'i';
+                    this.size = 4;
+                    break;
+                case "uint":
+                case "uint32":
+                    this.type = 'I';
+                    this.size = 4;
+                    break;
+                case "float":
+                case "float32":
+                    this.type = 'f';
+                    this.size = 4;
+                    break;
+                case "double":
+                case "float64":
+                    this.type = 'd';
+                    this.size = 8;
+                    break;
+                default:
+                    throw new IOException("Unsupported PLY property type: " + type);
+            }
+        }
+
+        double get(ByteBuffer b, int record) {
+            final int p = record + offset;
+            switch (type) {
+                case 'b':
+                    return b.get(p);
+                case 'B':
+                    return b.get(p) & 0xFF;
+                case 's':
+                    return b.getShort(p);
+                case 'S':
+                    return b.getShort(p) & 0xFFFF;
+                case 'i':
+                    return b.getInt(p);
+                case 'I':
+                    return b.getInt(p) & 0xFFFFFFFFL;
+                case 'f':
+                    return b.getFloat(p);
+                default:
+                    return b.getDouble(p);
+            }
+        }
+    }
+
+    /**
+     * Reads the vertices stored at a given offset of the channel.
+     *
+     * @param ch channel opened for reading
+     * @param offset position of the header in the channel
+     * @return the columns read
+     * @throws IOException if the content is not a binary little endian PLY
+     */
+    static ColumnarPointcloud decode(FileChannel ch, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        StringBuilder text = new StringBuilder();
+        long pos = offset;
+        Matcher end;
+        //the header is ASCII and ends with the end_header line
+        while (!(end = HEADER_END.matcher(text)).find()) {
+            buf.clear();
+            int read = ch.read(buf, pos);
+            if (read <= 0 || text.length() > MAX_HEADER) {
+                throw new IOException("No PLY header");
+            }
+            pos += read;
+            text.append(new String(buf.array(), 0, read, StandardCharsets.ISO_8859_1));
+        }
+        //the data start after the terminator actually used by the file
+        final long data = offset + end.end();
+        String[] lines = text.substring(0, end.start()).split("\r?\n");
+        if (lines.length < 2 || !lines[0].equals("ply")) {
+            throw new IOException("Not a PLY file");
+        }
+        int n = -1;
+        int record = 0;
+        boolean vertex = false;
+        Map<String, Property> properties = new HashMap<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (String line : lines) {
+            String[] t = line.trim().split("\\s+");
+            if (line.startsWith(PATCH_COMMENT)) {
+                String rest = line.substring(PATCH_COMMENT.length());
+                int space = rest.indexOf(' ');
+                names.put(Integer.parseInt(rest.substring(0, space)),
+                        new String(rest.substring(space + 1).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+            } else if (t[0].equals("format") && !(t.length > 1 && t[1].equals("binary_little_endian"))) {
+                throw new IOException("Only binary little endian PLY files are supported");
+            } else if (t[0].equals("element")) {
+                if (n < 0 && !t[1].equals("vertex")) {
+                    throw new IOException("The vertices must be the first element of the PLY file");
+                }
+                vertex = t[1].equals("vertex");
+                if (vertex) {
+                    n = Integer.parseInt(t[2]);
+                }
+            } else if (t[0].equals("property") && vertex) {
+                if (t[1].equals("list")) {
+                    throw new IOException("List properties of vertices are not supported");
+                }
+                Property p = new Property(t[2], t[1], record);
+                properties.put(p.name, p);
+                record += p.size;
+            }
+        }
+        Property px = properties.get("x");
+        Property py = properties.get("y");
+        Property pz = properties.get("z");
+        if (n < 0 || px == null || py == null || pz == null) {
+            throw new IOException("The PLY file has no vertex coordinates");
+        }
+        Property[] pn = {properties.get("nx"), properties.get("ny"), properties.get("nz")};
+        boolean hasNormals = pn[0] != null && pn[1] != null && pn[2] != null;
+        Property[] pc = {properties.get("red"), properties.get("green"), properties.get("blue")};
+        boolean hasColors = pc[0] != null && pc[1] != null && pc[2] != null;
+        int shift = hasColors && pc[0].size == 2 ? 8 : 0;
+        Property patch = properties.get("patch");
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        float[][] normals = hasNormals ? new float[3][n] : null;
+        int[] owner = patch == null ? null : new int[n];
+        final int perWindow = (int) Math.max(1, WINDOW / Math.max(1, record));
+        for (int first = 0; first < n; first += perWindow) {
+            int points = Math.min(perWindow, n - first);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, data + (long) first * record, (long) points * record);
+            m.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0, r = 0; i < points; i++, r += record) {
+                final int k = first + i;
+                x[k] = px.get(m, r);
+                y[k] = py.get(m, r);
+                z[k] = pz.get(m, r);
+                if (hasNormals) {
+                    normals[0][k] = (float) pn[0].get(m, r);
+                    normals[1][k] = (float) pn[1].get(m, r);
+                    normals[2][k] = (float) pn[2].get(m, r);
+                }
+                if (hasColors) {
+                    rgb[k] = ((int) pc[0].get(m, r) >> shift & 0xFF) << 16
+                            | ((int) pc[1].get(m, r) >> shift & 0xFF) << 8
+                            | ((int) pc[2].get(m, r) >> shift & 0xFF);
+                }
+                if (owner != null) {
+                    owner[k] = (int) patch.get(m, r);
+                }
+            }
+        }
+        List<String> patchNames = new ArrayList<>();
+        List<int[]> patchIndices = new ArrayList<>();
+        if (owner != null) {
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int o : owner) {
+                if (o >= 0) {
+                    counts.merge(o, 1, Integer::sum);
+                }
+            }
+            Map<Integer, Integer> slot = new HashMap<>();
+            counts.keySet().stream().sorted().forEach(o -> {
+                slot.put(o, patchNames.size());
+                patchNames.add(names.getOrDefault(o, "patch" + o));
+                patchIndices.add(new int[counts.get(o)]);
+            });
+            int[] filled = new int[patchNames.size()];
+            for (int k = 0; k < n; k++) {
+                if (owner[k] >= 0) {
+                    int s = slot.get(owner[k]);
+                    patchIndices.get(s)[filled[s]++] = k;
+                }
+            }
+        }
+        return new ColumnarPointcloud(x, y, z, rgb, patchNames.toArray(new String[0]),
+                patchIndices.toArray(new int[0][]), normals);
+    }
+
+    private static void flush(ByteBuffer buf, FileChannel ch) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+}
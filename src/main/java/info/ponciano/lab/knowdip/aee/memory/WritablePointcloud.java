@@ -21,8 +21,8 @@ import java.io.IOException;
 
 public class WritablePointcloud implements WritableResource<Pointcloud> {
 
-    private final Pointcloud cloud;
-    private static final String EXT = "xyz";
+    private Pointcloud cloud;
+    static final String EXT = "xyz";
 
     WritablePointcloud(Pointcloud cloud) {
         this.cloud = cloud;
@@ -39,7 +39,7 @@ public class WritablePointcloud implements WritableResource<Pointcloud> {
 
     @Override
     public void read(String path) throws IOException {
-        cloud.loadASCII(path);
+        this.cloud = AsciiPointcloudReader.read(path).toPointcloud();
     }
 
     @Override
@@ -57,4 +57,14 @@ public class WritablePointcloud implements WritableResource<Pointcloud> {
         return path.endsWith(EXT);
     }
 
+    @Override
+    public long sizeInBytes() {
+        return ColumnarPointcloud.heapBytes(this.cloud);
+    }
+
+    @Override
+    public long getPointCount() {
+        return this.cloud.size();
+    }
+
 }
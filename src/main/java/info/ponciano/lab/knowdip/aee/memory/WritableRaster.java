@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raster persisted in the tiled {@code .krt} format.
+ *
+ * @see Raster
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class WritableRaster implements WritableResource<Raster> {
+
+    public static final String EXT = "krt";
+
+    private Raster raster;
+
+    WritableRaster(Raster raster) {
+        this.raster = raster;
+    }
+
+    WritableRaster() {
+        this.raster = null;
+    }
+
+    @Override
+    public void write(String path) throws IOException {
+        //the tiles are gathered before truncating a file they may be mapped from
+        String tmp = path + ".tmp";
+        try (FileChannel ch = FileChannel.open(Paths.get(tmp), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            raster.encode(ch);
+        }
+        Files.move(Paths.get(tmp), Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void read(String path) throws IOException {
+        this.raster = Raster.open(path);
+    }
+
+    @Override
+    public Raster getData() {
+        return this.raster;
+    }
+
+    @Override
+    public boolean hasRightExt(String path) {
+        return path.endsWith("." + EXT);
+    }
+
+    @Override
+    public String getExt() {
+        return EXT;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return this.raster.sizeInBytes();
+    }
+
+}
@@ -33,4 +33,22 @@ public interface WritableResource<T> {
     public boolean hasRightExt(String path);
 
     public String getExt();
+
+    /**
+     * Estimates the number of heap bytes used by the data.
+     *
+     * @return the estimated size in bytes, 0 if it is unknown
+     */
+    public default long sizeInBytes() {
+        return 0;
+    }
+
+    /**
+     * Gets the number of points of the data.
+     *
+     * @return the number of points, 0 if the data is not a point cloud
+     */
+    public default long getPointCount() {
+        return 0;
+    }
 }
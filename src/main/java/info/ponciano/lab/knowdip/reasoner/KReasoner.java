@@ -16,24 +16,36 @@
  */
 package info.ponciano.lab.knowdip.reasoner;
 
+import info.ponciano.lab.knowdip.KD;
 import info.ponciano.lab.knowdip.Knowdip;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.BatchAlgorithm;
+import info.ponciano.lab.knowdip.aee.algorithm.sparql.CacheableAlgorithm;
 import info.ponciano.lab.knowdip.aee.memory.Memory;
 import info.ponciano.lab.knowdip.reasoner.automatic.PiRegex;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.jena.datatypes.RDFDatatype;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.riot.out.NodeFmtLib;
 
 /**
  *
@@ -41,8 +53,105 @@ import org.apache.jena.rdf.model.RDFNode;
  */
 public abstract class KReasoner {
 
+    /**
+     * Number of URIs tested by each query looking for the live resources of
+     * the memory.
+     */
+    private static final int GC_BATCH = 256;
+    /**
+     * Algorithm called by the query executing a rule.
+     */
+    private static final Pattern ALGORITHM = Pattern.compile("knowdip:(\\w+)\\(");
+    /**
+     * Variables of the query executing a rule.
+     */
+    private static final Pattern VARIABLE = Pattern.compile("\\?\\w+");
+
+    private boolean autoCollect = false;
+    private boolean prefetch = false;
+
     protected abstract Kee getKee();
 
+    /**
+     * Sets if the memory is collected after each {@code REMOVE}.
+     *
+     * @param autoCollect true to free the orphaned resources after each
+     * remove
+     */
+    public void setAutoCollect(boolean autoCollect) {
+        this.autoCollect = autoCollect;
+    }
+
+    /**
+     * Sets if the memory resources used by the algorithms of a rule are loaded
+     * in background before the algorithms are executed. Disabled by default:
+     * the solutions of each rule are then buffered to collect their
+     * resources.
+     *
+     * @param prefetch true to prefetch the resources of the selected bindings
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Sets the number of algorithm calls whose results are cached, 0 disables
+     * the cache. Only the calls of a {@link CacheableAlgorithm} are cached.
+     *
+     * @param capacity maximum number of calls cached
+     */
+    public void setResultCapacity(int capacity) {
+        this.getKee().getResultCache().setCapacity(capacity);
+    }
+
+    /**
+     * Sets if the results of the algorithm calls are persisted alongside the
+     * memory, so that they are reused by the next sessions.
+     *
+     * @param persistent true to persist the results
+     * @throws IOException if the results of a previous session cannot be read
+     */
+    public void setPersistentResults(boolean persistent) throws IOException {
+        this.getKee().setPersistentResults(persistent);
+    }
+
+    /**
+     * Writes the results of the algorithm calls if they are persisted.
+     *
+     * @throws IOException if the results cannot be written
+     */
+    public void saveResults() throws IOException {
+        this.getKee().saveResults();
+    }
+
+    /**
+     * Frees the resources of the memory whose individuals are no longer in the
+     * working model. It must not be called while algorithms are executed.
+     *
+     * @return the number of resources freed
+     */
+    public int collectMemory() {
+        return this.getMemory().gc(uris -> {
+            Set<String> live = new HashSet<>();
+            List<String> batch = new ArrayList<>(GC_BATCH);
+            Iterator<String> it = uris.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() == GC_BATCH || !it.hasNext()) {
+                    StringBuilder values = new StringBuilder();
+                    batch.forEach(uri -> values.append('<').append(uri).append("> "));
+                    Iterator<KSolution> select = this.getKee().select("SELECT DISTINCT ?s WHERE { VALUES ?s { "
+                            + values + "} ?s ?p ?o }");
+                    while (select.hasNext()) {
+                        live.add(select.next().get("?s").asResource().getURI());
+                    }
+                    batch.clear();
+                }
+            }
+            return live;
+        });
+    }
+
     public void inferRoot() throws KnowdipException {
         this.getKee().construct("CONSTRUCT { ?x rdf:type ?sub } WHERE {"
                 + "?x rdf:type ?t . ?t rdfs:subClassOf ?sub . "
@@ -80,14 +189,27 @@ public abstract class KReasoner {
     protected List<String> getInsert(String selectQuery, List<String> vars, String selectOut, String maj) {
         List<String> updateQuery = new LinkedList<>();
         Iterator<KSolution> select = this.getKee().select(selectQuery);
+        Class<? extends Algorithm> algorithm = this.algorithmOf(selectOut);
+        boolean batch = algorithm != null && BatchAlgorithm.class.isAssignableFrom(algorithm);
+        boolean cacheable = algorithm != null && CacheableAlgorithm.class.isAssignableFrom(algorithm);
+        if ((this.prefetch || batch) && select.hasNext()) {
+            List<KSolution> solutions = new ArrayList<>();
+            select.forEachRemaining(solutions::add);
+            if (this.prefetch) {
+                this.prefetch(solutions, vars);
+            }
+            if (batch) {
+                return this.getBatchInsert(solutions, vars, selectOut, maj, cacheable);
+            }
+            select = solutions.iterator();
+        }
         //select all the variables needed
 
-        List<String> executeMemory = new LinkedList<>();
+        Set<String> executeMemory = new HashSet<>();
         //get every elements
         while (select.hasNext()) {
             KSolution next = select.next();
             //build var values
-            /// List<VarRDFNode> values = new ArrayList<>();
             HashMap<String, String> varNode = new HashMap<>();
             vars.forEach((v) -> {
                 RDFNode get = next.get(v);
@@ -103,40 +225,201 @@ public abstract class KReasoner {
                 updateq = this.replaceAllString(updateq, key, varNode.get(key));
             }
             //Executes algorithms 
-            if (!executeMemory.contains(sout)) {
-                executeMemory.add(sout);
+            if (executeMemory.add(sout)) {
+                for (String out : this.execute(sout, cacheable)) {
+                    //update the knowledge base
+                    updateQuery.add(this.replaceAllString(updateq, "?out", out));
+                }
+            }
+        }
+        return updateQuery;
+    }
+
+    /**
+     * Executes an algorithm call, unless its results are cached. The results
+     * are cached only if the execution has not failed.
+     *
+     * @param sout query executing the algorithm, its arguments being values
+     * @param cacheable true if the algorithm is a {@link CacheableAlgorithm}
+     * @return the values of {@code ?out}
+     */
+    private List<String> execute(String sout, boolean cacheable) {
+        ResultCache cache = this.getKee().getResultCache();
+        List<String> outs = cacheable ? cache.get(sout) : null;
+        if (outs == null) {
+            Map<String, Long> inputs = cacheable ? cache.versions(sout) : null;
+            List<String> found = new ArrayList<>();
+            boolean complete = Algorithm.succeeds(() -> {
                 Iterator<KSolution> selectOutrs = this.getKee().select(sout);
                 //retrieve the result.
                 while (selectOutrs.hasNext()) {
-                    KSolution nextOut = selectOutrs.next();
-                    String out = getV(nextOut.get("?out"));
-
-                    /*if the data to be added is not a string
-                    if (out.contains("^")) {
-                        if (out.contains("#string")) {
-                            System.out.println(out);
-                            out  = out.replaceAll("\\^.*#string", "");
-                                  System.out.println("************************");
-                                     System.out.println(out);
-                        } else {
-                            PiString piString = new PiString(out);
-                            piString.removeAfter('^');
-                            piString.remove("\"");
-                            piString.remove("^");
-                            piString.removeStartingSpace();
-                            out = piString.toString();
+                    found.add(this.getV(selectOutrs.next().get("?out")));
+                }
+            });
+            if (cacheable && complete) {
+                cache.put(sout, inputs, found);
+            }
+            outs = found;
+        }
+        return outs;
+    }
+
+    /**
+     * Gets the algorithm executed by a rule.
+     *
+     * @param selectOut query executing the algorithm
+     * @return the class of the algorithm or {@code null} if it is unknown
+     */
+    private Class<? extends Algorithm> algorithmOf(String selectOut) {
+        Matcher matcher = ALGORITHM.matcher(selectOut);
+        if (!matcher.find()) {
+            return null;
+        }
+        return this.getKee().getAlgorithm(KD.NS + matcher.group(1));
+    }
+
+    /**
+     * Executes the algorithm of a rule in a single query for all the
+     * solutions of its select. The values of the arguments of each distinct
+     * call are given by a {@code VALUES} block, and the results are mapped
+     * back to the solutions by these values. If the batch fails, each call is
+     * executed alone so that a failing call does not drop the results of the
+     * others. Calls having a blank node as argument, which cannot be given by
+     * a {@code VALUES} block, are always executed alone.
+     *
+     * @param solutions solutions of the select query of the rule
+     * @param vars variables of the solutions
+     * @param selectOut query executing the algorithm
+     * @param maj query enriching the ontology
+     * @param cacheable true if the algorithm is a {@link CacheableAlgorithm}
+     * @return the update queries
+     */
+    private List<String> getBatchInsert(List<KSolution> solutions, List<String> vars, String selectOut, String maj,
+            boolean cacheable) {
+        List<String> args = new ArrayList<>();
+        Matcher matcher = VARIABLE.matcher(selectOut);
+        while (matcher.find()) {
+            if (!matcher.group().equals("?out") && !args.contains(matcher.group())) {
+                args.add(matcher.group());
+            }
+        }
+        //results of each distinct call, in the order of the solutions
+        Map<String, List<String>> outs = new LinkedHashMap<>();
+        //calls whose results are not cached, with the versions of their resources
+        Map<String, String> calls = new LinkedHashMap<>();
+        //calls executed one by one
+        Map<String, String> singles = new LinkedHashMap<>();
+        Map<String, Map<String, Long>> inputs = new HashMap<>();
+        ResultCache cache = this.getKee().getResultCache();
+        StringBuilder values = new StringBuilder();
+        for (KSolution sol : solutions) {
+            String key = this.getKey(sol, args);
+            if (!outs.containsKey(key)) {
+                String sout = "" + selectOut;
+                for (String v : args) {
+                    RDFNode get = sol.get(v);
+                    if (get != null) {
+                        sout = this.replaceAllString(sout, v, this.getV(get));
+                    }
+                }
+                List<String> cached = cacheable ? cache.get(sout) : null;
+                outs.put(key, cached == null ? new ArrayList<>() : cached);
+                if (cached != null) {
+                    continue;
+                }
+                if (args.stream().anyMatch(v -> sol.get(v) != null && sol.get(v).isAnon())) {
+                    singles.put(key, sout);
+                } else {
+                    calls.put(key, sout);
+                    if (cacheable) {
+                        inputs.put(key, cache.versions(sout));
+                    }
+                    values.append('(').append(key).append(") ");
+                }
+            }
+        }
+        if (!calls.isEmpty()) {
+            String call = selectOut.substring(selectOut.indexOf('{') + 1, selectOut.lastIndexOf('}'));
+            String names = String.join(" ", args);
+            boolean failed;
+            try {
+                failed = !Algorithm.succeeds(() -> {
+                    Iterator<KSolution> results = this.getKee().select("SELECT ?out " + names + " WHERE{ VALUES ("
+                            + names + ") { " + values + "} " + call + "}");
+                    while (results.hasNext()) {
+                        KSolution next = results.next();
+                        String key = this.getKey(next, args);
+                        if (calls.containsKey(key) && next.get("?out") != null) {
+                            outs.get(key).add(this.getV(next.get("?out")));
                         }
-                    }*/
-                    String upOut = this.replaceAllString(updateq, "?out", out);
-                    //update the knowledge base
-                    //  System.out.println(upOut);
-                    updateQuery.add(upOut);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                Logger.getLogger(KReasoner.class.getName()).log(Level.SEVERE, null, ex);
+                failed = true;
+            }
+            if (failed) {
+                //the partial results are replaced by the ones of each call
+                singles.putAll(calls);
+            } else if (cacheable) {
+                calls.forEach((key, sout) -> cache.put(sout, inputs.get(key), outs.get(key)));
+            }
+        }
+        singles.forEach((key, sout) -> outs.put(key, this.execute(sout, cacheable)));
+        //as for a single execution, only the first solution of a call is updated
+        List<String> updateQuery = new LinkedList<>();
+        Set<String> done = new HashSet<>();
+        for (KSolution sol : solutions) {
+            String key = this.getKey(sol, args);
+            if (done.add(key)) {
+                String updateq = "" + maj;
+                for (String v : vars) {
+                    RDFNode get = sol.get(v);
+                    if (get != null) {
+                        updateq = this.replaceAllString(updateq, v, this.getV(get));
+                    }
+                }
+                for (String out : outs.get(key)) {
+                    updateQuery.add(this.replaceAllString(updateq, "?out", out));
                 }
             }
         }
         return updateQuery;
     }
 
+    /**
+     * Gets the values of the arguments of a call, as a row of a
+     * {@code VALUES} block.
+     */
+    private String getKey(KSolution sol, List<String> args) {
+        StringBuilder key = new StringBuilder();
+        for (String v : args) {
+            RDFNode get = sol.get(v);
+            key.append(get == null ? "UNDEF" : NodeFmtLib.str(get.asNode())).append(' ');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Loads in background the memory resources bound by the solutions, so
+     * that the disk reads overlap the execution of the algorithms.
+     *
+     * @param solutions solutions of the select query of a rule
+     * @param vars variables of the solutions
+     */
+    private void prefetch(List<KSolution> solutions, List<String> vars) {
+        Set<String> uris = new LinkedHashSet<>();
+        solutions.forEach(sol -> vars.forEach(v -> {
+            RDFNode n = sol.get(v);
+            if (n != null && n.isURIResource()) {
+                uris.add(n.asResource().getURI());
+            }
+        }));
+        if (!uris.isEmpty()) {
+            this.getMemory().prefetch(uris);
+        }
+    }
+
     protected String getV(RDFNode get) {
         String result;
         if (get.isResource()) {
@@ -230,6 +513,9 @@ public abstract class KReasoner {
         for (String uri : uris) {
             this.getKee().update("DELETE WHERE {<" + uri + "> ?p ?o}");
         }
+        if (this.autoCollect) {
+            this.collectMemory();
+        }
 
     }
 
@@ -21,12 +21,16 @@ import info.ponciano.lab.knowdip.aee.AlgorithmRegistry;
 import info.ponciano.lab.knowdip.aee.KnowdipException;
 import info.ponciano.lab.knowdip.aee.algorithm.sparql.Algorithm;
 import info.ponciano.lab.knowdip.aee.memory.Memory;
+import info.ponciano.lab.knowdip.aee.memory.MemoryMonitor;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.query.QuerySolution;
@@ -56,6 +60,19 @@ public abstract class Kee {
     protected OntModel model;
     protected String prefix;
     protected Memory memory;
+    /**
+     * Name of the MBean monitoring the memory, unregistered on close.
+     */
+    private final ObjectName monitor;
+    /**
+     * Results of the algorithm calls executed by the rules.
+     */
+    protected final ResultCache results;
+    /**
+     * File in which the results are persisted, {@code null} if they are only
+     * kept in memory.
+     */
+    private String resultsPath;
 
     /**
      * Create new instance of @code{Controler}
@@ -73,17 +90,19 @@ public abstract class Kee {
      * contains the memory data.
      */
     public Kee(String ontologyPath, String workingDir) throws IOException, FileNotFoundException, KnowdipException {
-        this.memory = new Memory();
         new File(workingDir).mkdirs();
         this.ontologyPath = ontologyPath;
         this.datasetPath = workingDir + "dataset/";
         this.memoryPath = workingDir + "kmemory";
+        this.memory = new Memory(this.memoryPath);
+        this.monitor = MemoryMonitor.register(this.memory, this.memoryPath);
         if (new File(memoryPath).exists()) {
             this.memory.read(memoryPath);
             if(this.memory.isEmpty()){
                 System.err.println("Warning, the memory is empty, please check the folder: "+this.memoryPath);
             }
         }
+        this.results = new ResultCache(this.memory);
         this.init();
         this.prefix = "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n";
         this.prefix += "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n";
@@ -95,6 +114,36 @@ public abstract class Kee {
     public Memory getMemory() {
         return this.memory;
     }
+
+    public ResultCache getResultCache() {
+        return this.results;
+    }
+
+    /**
+     * Sets if the results of the algorithm calls are persisted alongside the
+     * memory directory. When enabled, the results of a previous session are
+     * read back.
+     *
+     * @param persistent true to persist the results
+     * @throws IOException if the results of a previous session cannot be read
+     */
+    public void setPersistentResults(boolean persistent) throws IOException {
+        this.resultsPath = persistent ? this.memoryPath + "." + ResultCache.EXT : null;
+        if (persistent && new File(this.resultsPath).exists()) {
+            this.results.read(this.resultsPath);
+        }
+    }
+
+    /**
+     * Writes the results of the algorithm calls if they are persisted.
+     *
+     * @throws IOException if the results cannot be written
+     */
+    public void saveResults() throws IOException {
+        if (this.resultsPath != null) {
+            this.results.write(this.resultsPath);
+        }
+    }
      
 
     protected synchronized boolean hasNext(ResultSet select) {
@@ -116,6 +165,17 @@ public abstract class Kee {
         this.algorithmRegistry.register(algo);
     }
 
+    /**
+     * Get the class of a registered algorithm.
+     *
+     * @param uri URI of the algorithm
+     * @return the class of the algorithm or {@code null} if it is not
+     * registered.
+     */
+    public Class<? extends Algorithm> getAlgorithm(String uri) {
+        return this.algorithmRegistry.getAlgorithm(uri);
+    }
+
     /**
      * Data set initialization from an existing Knowdip ontology file.
      *
@@ -185,6 +245,7 @@ public abstract class Kee {
      */
     public void saveMemory() throws IOException {
          this.memory.write(this.memoryPath);
+         this.saveResults();
     }
 
     /**
@@ -214,6 +275,19 @@ public abstract class Kee {
      */
     public abstract void close();
 
+    /**
+     * Unregisters the monitor of the memory and closes the memory, to be
+     * called when the engine is closed, after the memory has been saved.
+     */
+    protected void closeMemory() {
+        MemoryMonitor.unregister(this.monitor);
+        try {
+            this.memory.close();
+        } catch (IOException ex) {
+            Logger.getLogger(Kee.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
     /**
      * get the working model
      *
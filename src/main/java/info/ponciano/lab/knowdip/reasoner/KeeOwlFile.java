@@ -129,8 +129,11 @@ public class KeeOwlFile extends Kee {
         try {
             this.workingModel.write(new FileWriter(this.workingOntPath));
             this.memory.write(this.memoryPath);
+            this.saveResults();
         } catch (IOException ex) {
             Logger.getLogger(KeeOwlFile.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            this.closeMemory();
         }
     }
 
@@ -151,9 +151,12 @@ public class KeeTS extends Kee {
         try {
             this.dataset.close();
             this.memory.write(this.memoryPath);
+            this.saveResults();
         } catch (IOException ex) {
             Logger.getLogger(KeeTS.class
                     .getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            this.closeMemory();
         }
     }
 
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.reasoner;
+
+import info.ponciano.lab.knowdip.aee.memory.Memory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of the results of the algorithm calls executed by the rules.
+ * <p>
+ * A call is identified by its query, giving the algorithm and its arguments
+ * once the variables are replaced by their values. The results of a call are
+ * reused as long as the memory resources given as arguments keep the version
+ * they had before the call was executed, and as long as the memory resources
+ * returned are still allocated. The least recently used calls are evicted
+ * beyond the capacity of the cache. Only the calls of a
+ * {@link info.ponciano.lab.knowdip.aee.algorithm.sparql.CacheableAlgorithm}
+ * are meant to be cached.</p>
+ * <p>
+ * The cache can be written alongside the memory directory, so that the rules
+ * executed again on an unchanged dataset reuse the results of a previous
+ * session. Only the calls still valid are written, with the stamp of the
+ * stored content of each resource given as argument. A call read is kept only
+ * if the resources of the memory read with it have the same stamps.</p>
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+public class ResultCache {
+
+    public static final String EXT = "krc";
+    static final int MAGIC = 0x4B445243;
+    static final int VERSION = 2;
+    /**
+     * Default number of calls kept.
+     */
+    public static final int CAPACITY = 1 << 16;
+    private static final Pattern URI = Pattern.compile("<([^<>\\s]*)>");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    /**
+     * Results of a call.
+     */
+    private static final class Call {
+
+        /**
+         * Versions of the memory resources given as arguments.
+         */
+        private final Map<String, Long> inputs;
+        /**
+         * Memory resources returned by the call.
+         */
+        private final Set<String> resources;
+        private final List<String> outs;
+
+        Call(Map<String, Long> inputs, Set<String> resources, List<String> outs) {
+            this.inputs = inputs;
+            this.resources = resources;
+            this.outs = outs;
+        }
+    }
+
+    private final Memory memory;
+    private final LinkedHashMap<String, Call> entries;
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache of the default capacity.
+     *
+     * @param memory memory holding the resources used by the algorithms
+     */
+    public ResultCache(Memory memory) {
+        this.memory = memory;
+        this.capacity = CAPACITY;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Call> eldest) {
+                return size() > ResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Sets the number of calls kept, 0 disables the cache.
+     *
+     * @param capacity maximum number of calls
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        while (this.entries.size() > capacity) {
+            this.entries.remove(this.entries.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Gets the results of a call.
+     *
+     * @param call query executing the algorithm
+     * @return the results or {@code null} if the call has not been cached or
+     * if its results are no longer valid
+     */
+    public synchronized List<String> get(String call) {
+        String key = canonical(call);
+        Call e = this.entries.get(key);
+        if (e != null && !this.isValid(e)) {
+            this.entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return new ArrayList<>(e.outs);
+    }
+
+    /**
+     * Gets the versions of the memory resources given as arguments of a call,
+     * which are the URIs of the call allocated in the memory. They have to be
+     * taken before the call is executed.
+     *
+     * @param call query executing the algorithm
+     * @return the version of each resource
+     */
+    public Map<String, Long> versions(String call) {
+        Map<String, Long> inputs = new HashMap<>();
+        Matcher matcher = URI.matcher(call);
+        while (matcher.find()) {
+            long version = this.memory.getVersion(matcher.group(1));
+            if (version > 0) {
+                inputs.put(matcher.group(1), version);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Records the results of a call. The call is not recorded if one of its
+     * resources has been replaced since its versions were taken, the results
+     * could then have been computed on either version.
+     *
+     * @param call query executing the algorithm
+     * @param inputs versions of the resources taken before the execution by
+     * {@link #versions(java.lang.String)}
+     * @param outs results of the call
+     */
+    public synchronized void put(String call, Map<String, Long> inputs, List<String> outs) {
+        if (this.capacity == 0 || !inputs.equals(this.versions(call))) {
+            return;
+        }
+        Set<String> resources = new HashSet<>();
+        for (String out : outs) {
+            Matcher matcher = URI.matcher(out);
+            if (matcher.matches() && this.memory.contains(matcher.group(1))) {
+                resources.add(matcher.group(1));
+            }
+        }
+        this.entries.put(canonical(call), new Call(new HashMap<>(inputs), resources, new ArrayList<>(outs)));
+    }
+
+    private boolean isValid(Call e) {
+        for (Map.Entry<String, Long> input : e.inputs.entrySet()) {
+            if (this.memory.getVersion(input.getKey()) != input.getValue()) {
+                return false;
+            }
+        }
+        for (String resource : e.resources) {
+            if (!this.memory.contains(resource)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String canonical(String call) {
+        return SPACES.matcher(call.strip()).replaceAll(" ");
+    }
+
+    /**
+     * Writes the valid calls in a file. The calls having a resource that has
+     * never been stored are not written, their content could not be checked
+     * when they are read.
+     *
+     * @param path path of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(String path) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            Map<String, Map<String, String>> stamps = new LinkedHashMap<>();
+            for (Map.Entry<String, Call> e : this.entries.entrySet()) {
+                Map<String, String> s = this.stamps(e.getValue());
+                if (s != null) {
+                    stamps.put(e.getKey(), s);
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stamps.size());
+            for (Map.Entry<String, Map<String, String>> e : stamps.entrySet()) {
+                Call c = this.entries.get(e.getKey());
+                writeString(out, e.getKey());
+                writeStrings(out, e.getValue().keySet());
+                writeStrings(out, e.getValue().values());
+                writeStrings(out, c.resources);
+                writeStrings(out, c.outs);
+            }
+        }
+        Files.move(tmp, Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the stamps of the resources given as arguments of a call.
+     *
+     * @param c call
+     * @return the stamp of each resource, or {@code null} if the call is no
+     * longer valid or if a resource has never been stored
+     */
+    private Map<String, String> stamps(Call c) {
+        if (!this.isValid(c)) {
+            return null;
+        }
+        Map<String, String> stamps = new LinkedHashMap<>();
+        for (String uri : c.inputs.keySet()) {
+            String stamp = this.memory.getStamp(uri);
+            if (stamp == null) {
+                return null;
+            }
+            stamps.put(uri, stamp);
+        }
+        return stamps;
+    }
+
+    /**
+     * Reads the calls written in a file. A call is kept only if each of its
+     * resources is allocated with the stored content it had when the call was
+     * written, it is then bound to the current version of the resource.
+     *
+     * @param path path of the file
+     * @return the number of calls read
+     * @throws IOException if the file is not a cache of results
+     */
+    public synchronized int read(String path) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(path))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cache of results: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cache of results version: " + version);
+            }
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String call = readString(in);
+                List<String> uris = readStrings(in);
+                List<String> stamps = readStrings(in);
+                if (uris.size() != stamps.size()) {
+                    throw new IOException("Corrupted cache of results: " + path);
+                }
+                Map<String, Long> inputs = new HashMap<>();
+                boolean valid = true;
+                for (int k = 0; k < uris.size(); k++) {
+                    long v = this.memory.getVersion(uris.get(k));
+                    valid &= v > 0 && stamps.get(k).equals(this.memory.getStamp(uris.get(k)));
+                    inputs.put(uris.get(k), v);
+                }
+                Set<String> resources = new HashSet<>(readStrings(in));
+                List<String> outs = readStrings(in);
+                Call e = new Call(inputs, resources, outs);
+                if (valid && this.isValid(e) && this.capacity > 0) {
+                    this.entries.put(call, e);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void writeStrings(DataOutputStream out, Iterable<String> values) throws IOException {
+        List<String> list = new ArrayList<>();
+        values.forEach(list::add);
+        out.writeInt(list.size());
+        for (String v : list) {
+            writeString(out, v);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        final int n = in.readInt();
+        List<String> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reading of ASCII point clouds with irregular lines and across chunks.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class AsciiPointcloudReaderTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Headers, blank lines, mixed separators and line endings, missing or
+     * extra columns and a last line without line break.
+     */
+    @Test
+    void readsARaggedFile() throws IOException {
+        String text = "// exported by a scanner\n"
+                + "x y z r g b\n"
+                + "1.5 2.5 3.5\n"
+                + "-1,2,3,255,0,128,roof\n"
+                + "4;5;6;10;20;30;0.75;0.1;0.2;0.3;roof\r\n"
+                + "\n"
+                + "7\t8\t9\t300\t-5\t12.6\twall\r\n"
+                + "1e1 2E-1 -3.25 1 2 3 4 5\n"
+                + "10 11 12 13\n"
+                + "+0.5 .5 0 40 50 60 roof\n"
+                + "  2 2 2 1 1 1 wall";
+        Path file = dir.resolve("ragged.txt");
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+
+        ColumnarPointcloud expected = new ColumnarPointcloud(
+                new double[]{1.5, -1, 4, 7, 10, 10, 0.5, 2},
+                new double[]{2.5, 2, 5, 8, 0.2, 11, 0.5, 2},
+                new double[]{3.5, 3, 6, 9, -3.25, 12, 0, 2},
+                new int[]{0, 0xFF0080, 0x0A141E, 0xFF000D, 0x010203, 0, 0x28323C, 0x010101},
+                new String[]{"roof", "wall"},
+                new int[][]{{1, 2, 6}, {3, 7}});
+        Clouds.assertSameCloud(expected, AsciiPointcloudReader.read(file.toString()), 0);
+    }
+
+    @Test
+    void mergesTheChunksInTheOrderOfTheFile() throws IOException {
+        final int n = 120_000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        int[][] indices = new int[3][];
+        for (int p = 0; p < 3; p++) {
+            final int patch = p;
+            indices[p] = new int[(n - p + 2) / 3];
+            Arrays.setAll(indices[p], k -> 3 * k + patch);
+        }
+        Path file = dir.resolve("large.xyz");
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < n; i++) {
+                x[i] = i;
+                y[i] = i * 0.5;
+                z[i] = -i * 0.25;
+                rgb[i] = (i % 256) << 16 | (i * 7 % 256) << 8 | (i * 13 % 256);
+                w.write(x[i] + " " + y[i] + " " + z[i] + " " + (i % 256) + " " + (i * 7 % 256) + " "
+                        + (i * 13 % 256) + " patch" + (i % 3) + "\n");
+            }
+        }
+        ColumnarPointcloud expected = new ColumnarPointcloud(x, y, z, rgb,
+                new String[]{"patch0", "patch1", "patch2"}, indices);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Clouds.assertSameCloud(expected, AsciiPointcloudReader.read(file.toString(), pool), 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
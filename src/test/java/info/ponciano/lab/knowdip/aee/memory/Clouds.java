@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sample clouds and assertions shared by the tests of the formats.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+final class Clouds {
+
+    private Clouds() {
+    }
+
+    /**
+     * @return six points with two overlapping patches and a point outside
+     * any patch
+     */
+    static ColumnarPointcloud sample() {
+        return new ColumnarPointcloud(
+                new double[]{0.0, 1.25, -3.5, 1000.125, 12.0, 0.5},
+                new double[]{0.0, 2.5, 7.75, -20.0, 3.0, 0.25},
+                new double[]{0.0, -1.0, 0.125, 42.0, 5.5, 9.0},
+                new int[]{0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0x123456, 0xFFFFFF},
+                new String[]{"roof", "wall"},
+                new int[][]{{0, 1, 2}, {2, 3, 4}});
+    }
+
+    /**
+     * @return the sample with disjoint patches, for the formats storing a
+     * single patch per point
+     */
+    static ColumnarPointcloud disjoint() {
+        ColumnarPointcloud pc = sample();
+        return new ColumnarPointcloud(pc.getX(), pc.getY(), pc.getZ(), pc.getRGB(),
+                new String[]{"roof", "wall"}, new int[][]{{0, 1, 2}, {3, 4}});
+    }
+
+    /**
+     * Writes a cloud in a file with a codec.
+     */
+    static void write(Path file, Encoder encoder) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            encoder.encode(ch);
+        }
+    }
+
+    /**
+     * Writes a cloud with a codec and decodes it back from the same file.
+     */
+    static ColumnarPointcloud roundTrip(Path file, Encoder encoder, Decoder decoder) throws IOException {
+        write(file, encoder);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return decoder.decode(ch);
+        }
+    }
+
+    @FunctionalInterface
+    interface Encoder {
+
+        void encode(FileChannel ch) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Decoder {
+
+        ColumnarPointcloud decode(FileChannel ch) throws IOException;
+    }
+
+    /**
+     * Asserts that two clouds have the same points in the same order and the
+     * same patches.
+     *
+     * @param delta tolerance on the coordinates
+     */
+    static void assertSameCloud(ColumnarPointcloud expected, ColumnarPointcloud actual, double delta) {
+        assertEquals(expected.size(), actual.size(), "number of points");
+        assertArrayEquals(expected.getX(), actual.getX(), delta, "X");
+        assertArrayEquals(expected.getY(), actual.getY(), delta, "Y");
+        assertArrayEquals(expected.getZ(), actual.getZ(), delta, "Z");
+        assertArrayEquals(expected.getRGB(), actual.getRGB(), "colours");
+        assertEquals(patches(expected).keySet(), patches(actual).keySet(), "patch names");
+        patches(expected).forEach((name, indices) -> assertArrayEquals(indices, patches(actual).get(name),
+                "points of the patch " + name));
+    }
+
+    /**
+     * @return the sorted indices of the points of each patch, by name
+     */
+    static Map<String, int[]> patches(ColumnarPointcloud pc) {
+        Map<String, int[]> patches = new TreeMap<>();
+        for (int k = 0; k < pc.getPatchNames().length; k++) {
+            int[] indices = pc.getPatchIndices()[k].clone();
+            Arrays.sort(indices);
+            patches.put(pc.getPatchNames()[k], indices);
+        }
+        return patches;
+    }
+}
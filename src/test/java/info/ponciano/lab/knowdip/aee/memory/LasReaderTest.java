@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reading of a LAS 1.2 file of point format 2, written record by record.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class LasReaderTest {
+
+    private static final int HEADER = 227;
+    private static final int RECORD = 26;
+
+    private static final double[] X = {1000.25, 1001.5, 999.99, 1010.0};
+    private static final double[] Y = {2000.0, 2000.75, 1999.5, 2003.25};
+    private static final double[] Z = {0.125, -1.5, 12.345, 7.0};
+    private static final int[] INTENSITY = {0x1000, 0x8000, 0xFFFF, 0};
+    /**
+     * The last class has its withheld flag set.
+     */
+    private static final byte[] CLASS = {2, 6, 2, (byte) (0x80 | 6)};
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes the points with the given colours.
+     */
+    private Path write(String name, int[][] colors) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER + X.length * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("LASF".getBytes(StandardCharsets.US_ASCII));
+        b.put(24, (byte) 1).put(25, (byte) 2);
+        b.putShort(94, (short) HEADER);
+        b.putInt(96, HEADER);
+        b.putInt(100, 0);
+        b.put(104, (byte) 2);
+        b.putShort(105, (short) RECORD);
+        b.putInt(107, X.length);
+        b.putDouble(131, 0.01).putDouble(139, 0.01).putDouble(147, 0.001);
+        b.putDouble(155, 1000).putDouble(163, 2000).putDouble(171, 0);
+        for (int i = 0; i < X.length; i++) {
+            int p = HEADER + i * RECORD;
+            b.putInt(p, (int) Math.round((X[i] - 1000) / 0.01));
+            b.putInt(p + 4, (int) Math.round((Y[i] - 2000) / 0.01));
+            b.putInt(p + 8, (int) Math.round(Z[i] / 0.001));
+            b.putShort(p + 12, (short) INTENSITY[i]);
+            b.put(p + 15, CLASS[i]);
+            for (int c = 0; c < 3; c++) {
+                b.putShort(p + 20 + 2 * c, (short) colors[i][c]);
+            }
+        }
+        Path file = dir.resolve(name);
+        Files.write(file, b.array());
+        return file;
+    }
+
+    private static ColumnarPointcloud expected(int[] rgb, String[] names, int[][] indices) {
+        return new ColumnarPointcloud(X, Y, Z, rgb, names, indices);
+    }
+
+    @Test
+    void readsSixteenBitColors() throws IOException {
+        Path file = write("colors.las", new int[][]{
+            {0xFF00, 0x0000, 0x8000}, {0x0100, 0x0200, 0x0300}, {0xFFFF, 0xFFFF, 0xFFFF}, {0, 0, 0x00FF}});
+        Clouds.assertSameCloud(expected(new int[]{0xFF0080, 0x010203, 0xFFFFFF, 0x000000}, new String[0], new int[0][]),
+                LasReader.read(file.toString()), 1e-9);
+    }
+
+    @Test
+    void keepsEightBitColors() throws IOException {
+        Path file = write("bytes.las", new int[][]{{255, 0, 128}, {1, 2, 3}, {255, 255, 255}, {0, 0, 255}});
+        Clouds.assertSameCloud(expected(new int[]{0xFF0080, 0x010203, 0xFFFFFF, 0x0000FF}, new String[0], new int[0][]),
+                LasReader.read(file.toString()), 1e-9);
+    }
+
+    @Test
+    void readsTheClassesAsPatches() throws IOException {
+        Path file = write("classes.las", new int[4][3]);
+        Clouds.assertSameCloud(expected(new int[]{0x101010, 0x808080, 0xFFFFFF, 0}, new String[]{"class2", "class6"},
+                new int[][]{{0, 2}, {1, 3}}),
+                LasReader.read(file.toString(), EnumSet.of(LasReader.Attribute.INTENSITY, LasReader.Attribute.CLASSIFICATION)),
+                1e-9);
+    }
+}
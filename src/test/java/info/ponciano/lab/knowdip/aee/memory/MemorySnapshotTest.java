@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.jpc.pointcloud.Pointcloud;
+import info.ponciano.lab.knowdip.UriTable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip of the single file {@code .kds} snapshot of a memory.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class MemorySnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void copiesTheBlocksOfTheFiles() throws IOException {
+        ColumnarPointcloud binary = Clouds.sample();
+        ColumnarPointcloud compressed = Clouds.disjoint();
+        Path kpc = dir.resolve("a.kpc");
+        Path kpz = dir.resolve("b.kpz");
+        Clouds.write(kpc, ch -> WritableBinaryPointcloud.encode(binary, ch));
+        Clouds.write(kpz, ch -> WritableCompressedPointcloud.encode(compressed, 1e-3, ch));
+        String path = dir.resolve("memory.kds").toString();
+        MemorySnapshot.Writer w = MemorySnapshot.writer(path);
+        assertTrue(w.add("kd:a", kpc.toString()));
+        assertTrue(w.add("kd:b", kpz.toString()));
+        w.setPatches(Map.of("kd:roof", "kd:a", "kd:wall", "kd:a"));
+        w.commit();
+
+        try (MemorySnapshot s = MemorySnapshot.open(path)) {
+            assertEquals(Set.of("kd:a", "kd:b"), s.getUris());
+            assertEquals(Map.of("kd:roof", "kd:a", "kd:wall", "kd:a"), s.getPatches());
+            assertEquals(WritableBinaryPointcloud.EXT, s.getExt("kd:a"));
+            assertEquals(WritableCompressedPointcloud.EXT, s.getExt("kd:b"));
+            Path a = dir.resolve("a.extracted.kpc");
+            s.extract("kd:a", a.toString());
+            try (FileChannel ch = FileChannel.open(a, StandardOpenOption.READ)) {
+                Clouds.assertSameCloud(binary, WritableBinaryPointcloud.decode(ch, 0), 0);
+            }
+            Path b = dir.resolve("b.extracted.kpz");
+            s.extract("kd:b", b.toString());
+            try (FileChannel ch = FileChannel.open(b, StandardOpenOption.READ)) {
+                Clouds.assertSameCloud(compressed, WritableCompressedPointcloud.decode(ch, 0), 5e-4 + 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void restoresTheCloudsOfAMemory() throws IOException {
+        ColumnarPointcloud pc = Clouds.sample();
+        String uri = UriTable.qualified("scan");
+        String path = dir.resolve("memory.kds").toString();
+        try (Memory memory = new Memory(dir.resolve("heap").toString())) {
+            memory.attach(uri, pc);
+            memory.write(path);
+        }
+        try (Memory memory = new Memory(dir.resolve("restored").toString())) {
+            memory.read(path);
+            assertTrue(memory.contains(uri));
+            Clouds.assertSameCloud(pc, ColumnarPointcloud.of((Pointcloud) memory.access(uri)), 0);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import info.ponciano.lab.knowdip.UriTable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Partition of streamed blocks into tiles stored in the directory of a
+ * memory.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class PointcloudTilerTest {
+
+    private static final double TILE = 10;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return a key identifying a point by its coordinates and its colour
+     */
+    private static String key(ColumnarPointcloud pc, int i) {
+        return pc.getX()[i] + " " + pc.getY()[i] + " " + pc.getZ()[i] + " " + pc.getRGB()[i];
+    }
+
+    @Test
+    void splitsThePointsAndThePatchesByTile() throws IOException {
+        //the patch "road" crosses three tiles and is received in both blocks
+        ColumnarPointcloud first = new ColumnarPointcloud(
+                new double[]{1, 9.5, 10, 15, -0.5},
+                new double[]{1, 2, 3, 4, 5},
+                new double[]{0, 1, 2, 3, 4},
+                new int[]{0x010101, 0x020202, 0x030303, 0x040404, 0x050505},
+                new String[]{"road", "tree"},
+                new int[][]{{0, 2, 4}, {1}});
+        ColumnarPointcloud second = new ColumnarPointcloud(
+                new double[]{2, 25, 3},
+                new double[]{12, 1, 1},
+                new double[]{5, 6, 7},
+                new int[]{0x060606, 0x070707, 0x080808},
+                new String[]{"road"},
+                new int[][]{{1, 2}});
+        //tile and patch expected for each point
+        Map<String, String> tileOf = new HashMap<>();
+        Map<String, String> patchOf = new HashMap<>();
+        String[][] expected = {
+            {"city_0_0", "road"}, {"city_0_0", "tree"}, {"city_1_0", "road"}, {"city_1_0", null}, {"city_-1_0", "road"},
+            {"city_0_1", null}, {"city_2_0", "road"}, {"city_0_0", "road"}};
+        List<String> keys = new ArrayList<>();
+        for (ColumnarPointcloud block : new ColumnarPointcloud[]{first, second}) {
+            for (int i = 0; i < block.size(); i++) {
+                keys.add(key(block, i));
+            }
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            tileOf.put(keys.get(i), expected[i][0]);
+            if (expected[i][1] != null) {
+                patchOf.put(keys.get(i), expected[i][0] + "_" + expected[i][1]);
+            }
+        }
+
+        Path heap = dir.resolve("heap");
+        List<String> uris;
+        try (Memory memory = new Memory(heap.toString()); PointcloudTiler tiler = new PointcloudTiler(TILE)) {
+            tiler.accept(first);
+            tiler.accept(second);
+            assertEquals(5, tiler.getTileCount());
+            uris = tiler.store(memory, "city");
+            for (String uri : uris) {
+                assertTrue(memory.contains(uri), uri);
+            }
+        }
+        assertEquals(5, uris.size());
+        int points = 0;
+        for (String uri : uris) {
+            String name = uri.substring(uri.lastIndexOf('#') + 1);
+            assertEquals(UriTable.qualified(name), uri);
+            ColumnarPointcloud tile;
+            try (FileChannel ch = FileChannel.open(heap.resolve(name + "." + WritableBinaryPointcloud.EXT),
+                    StandardOpenOption.READ)) {
+                tile = WritableBinaryPointcloud.decode(ch, 0);
+            }
+            Map<String, String> patches = new HashMap<>();
+            for (int k = 0; k < tile.getPatchNames().length; k++) {
+                for (int i : tile.getPatchIndices()[k]) {
+                    patches.put(key(tile, i), tile.getPatchNames()[k]);
+                }
+            }
+            for (int i = 0; i < tile.size(); i++) {
+                String key = key(tile, i);
+                assertEquals(tileOf.get(key), name, "tile of " + key);
+                assertEquals(patchOf.get(key), patches.get(key), "patch of " + key);
+            }
+            points += tile.size();
+        }
+        assertEquals(keys.size(), points);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Round trip of the binary {@code .kpc} format.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class WritableBinaryPointcloudTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decodesWhatIsEncoded() throws IOException {
+        ColumnarPointcloud pc = Clouds.sample();
+        ColumnarPointcloud read = Clouds.roundTrip(dir.resolve("cloud.kpc"),
+                ch -> WritableBinaryPointcloud.encode(pc, ch),
+                ch -> WritableBinaryPointcloud.decode(ch, 0));
+        Clouds.assertSameCloud(pc, read, 0);
+    }
+
+    @Test
+    void readsThePatchNamesOnly() throws IOException {
+        Path file = dir.resolve("cloud.kpc");
+        Clouds.write(file, ch -> WritableBinaryPointcloud.encode(Clouds.sample(), ch));
+        assertArrayEquals(new String[]{"roof", "wall"}, WritableBinaryPointcloud.patchNames(file.toString()));
+    }
+}
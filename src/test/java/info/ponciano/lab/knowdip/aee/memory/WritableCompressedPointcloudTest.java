@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Round trip of the compressed {@code .kpz} format, whose coordinates are
+ * restored within half a quantum.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class WritableCompressedPointcloudTest {
+
+    private static final double QUANTUM = 1e-3;
+    /**
+     * Half a quantum, plus the rounding of the restored doubles for the
+     * values falling exactly between two steps.
+     */
+    private static final double TOLERANCE = QUANTUM / 2 + 1e-9;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decodesWithinHalfAQuantum() throws IOException {
+        ColumnarPointcloud pc = Clouds.sample();
+        ColumnarPointcloud read = Clouds.roundTrip(dir.resolve("cloud.kpz"),
+                ch -> WritableCompressedPointcloud.encode(pc, QUANTUM, ch),
+                ch -> WritableCompressedPointcloud.decode(ch, 0));
+        Clouds.assertSameCloud(pc, read, TOLERANCE);
+    }
+
+    @Test
+    void decodesARangeAcrossBlocks() throws IOException {
+        final int n = 2 * WritableCompressedPointcloud.BLOCK + 17;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        int[] rgb = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.0137;
+            y[i] = -i * 0.0291;
+            z[i] = Math.sin(i) * 50;
+            rgb[i] = i * 7919 & 0xFFFFFF;
+        }
+        int[] even = new int[(n + 1) / 2];
+        Arrays.setAll(even, k -> 2 * k);
+        ColumnarPointcloud pc = new ColumnarPointcloud(x, y, z, rgb, new String[]{"even"}, new int[][]{even});
+        Path file = dir.resolve("large.kpz");
+        ColumnarPointcloud read = Clouds.roundTrip(file,
+                ch -> WritableCompressedPointcloud.encode(pc, QUANTUM, ch),
+                ch -> WritableCompressedPointcloud.decode(ch, 0));
+        Clouds.assertSameCloud(pc, read, TOLERANCE);
+
+        final int from = WritableCompressedPointcloud.BLOCK - 5;
+        final int to = 2 * WritableCompressedPointcloud.BLOCK + 3;
+        ColumnarPointcloud range;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            range = WritableCompressedPointcloud.decode(ch, 0, from, to);
+        }
+        assertEquals(to - from, range.size());
+        assertArrayEquals(Arrays.copyOfRange(x, from, to), range.getX(), TOLERANCE);
+        assertArrayEquals(Arrays.copyOfRange(y, from, to), range.getY(), TOLERANCE);
+        assertArrayEquals(Arrays.copyOfRange(z, from, to), range.getZ(), TOLERANCE);
+        assertArrayEquals(Arrays.copyOfRange(rgb, from, to), range.getRGB());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package info.ponciano.lab.knowdip.aee.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Round trip of the PLY format and reading of a file written by another tool.
+ *
+ * @author Dr Jean-Jacques Ponciano (Contact: jean-jacques@ponciano.info)
+ */
+class WritablePlyPointcloudTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void loadsWhatIsEncoded() throws IOException {
+        ColumnarPointcloud pc = Clouds.disjoint();
+        Path file = dir.resolve("cloud.ply");
+        Clouds.write(file, ch -> WritablePlyPointcloud.encode(pc, ch));
+        Clouds.assertSameCloud(pc, WritablePlyPointcloud.load(file.toString()), 0);
+    }
+
+    @Test
+    void keepsTheNormals() throws IOException {
+        ColumnarPointcloud sample = Clouds.disjoint();
+        float[][] normals = new float[3][sample.size()];
+        for (int i = 0; i < sample.size(); i++) {
+            normals[0][i] = i;
+            normals[1][i] = -0.5f * i;
+            normals[2][i] = 1;
+        }
+        ColumnarPointcloud pc = new ColumnarPointcloud(sample.getX(), sample.getY(), sample.getZ(), sample.getRGB(),
+                sample.getPatchNames(), sample.getPatchIndices(), normals);
+        ColumnarPointcloud read = Clouds.roundTrip(dir.resolve("normals.ply"),
+                ch -> WritablePlyPointcloud.encode(pc, ch), ch -> WritablePlyPointcloud.decode(ch, 0));
+        Clouds.assertSameCloud(pc, read, 0);
+        assertNotNull(read.getNormals());
+        for (int c = 0; c < 3; c++) {
+            assertArrayEquals(normals[c], read.getNormals()[c]);
+        }
+    }
+
+    /**
+     * A header with CRLF line endings, float coordinates, 16-bit colours and
+     * a point outside any patch.
+     */
+    @Test
+    void readsACrlfHeader() throws IOException {
+        String header = "ply\r\n"
+                + "format binary_little_endian 1.0\r\n"
+                + "comment written on Windows\r\n"
+                + "comment knowdip patch 1 facade\r\n"
+                + "element vertex 3\r\n"
+                + "property float x\r\n"
+                + "property float y\r\n"
+                + "property float z\r\n"
+                + "property ushort red\r\n"
+                + "property ushort green\r\n"
+                + "property ushort blue\r\n"
+                + "property int patch\r\n"
+                + "end_header\r\n";
+        byte[] text = header.getBytes(StandardCharsets.US_ASCII);
+        final int record = 3 * Float.BYTES + 3 * Short.BYTES + Integer.BYTES;
+        ByteBuffer b = ByteBuffer.allocate(text.length + 3 * record).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(text);
+        b.putFloat(1.5f).putFloat(2.5f).putFloat(-3.0f).putShort((short) 0xFF00).putShort((short) 0x8000).putShort((short) 0).putInt(1);
+        b.putFloat(4.0f).putFloat(5.0f).putFloat(6.0f).putShort((short) 0x0100).putShort((short) 0x0200).putShort((short) 0x0300).putInt(-1);
+        b.putFloat(7.0f).putFloat(8.25f).putFloat(9.0f).putShort((short) 0xFFFF).putShort((short) 0xFFFF).putShort((short) 0xFFFF).putInt(1);
+        Path file = dir.resolve("crlf.ply");
+        Files.write(file, b.array());
+
+        ColumnarPointcloud expected = new ColumnarPointcloud(
+                new double[]{1.5, 4.0, 7.0},
+                new double[]{2.5, 5.0, 8.25},
+                new double[]{-3.0, 6.0, 9.0},
+                new int[]{0xFF8000, 0x010203, 0xFFFFFF},
+                new String[]{"facade"},
+                new int[][]{{0, 2}});
+        Clouds.assertSameCloud(expected, WritablePlyPointcloud.load(file.toString()), 0);
+    }
+}